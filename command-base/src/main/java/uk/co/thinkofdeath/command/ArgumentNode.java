@@ -16,23 +16,220 @@
 
 package uk.co.thinkofdeath.command;
 
+import uk.co.thinkofdeath.parsing.ParserException;
 import uk.co.thinkofdeath.parsing.parsers.ArgumentParser;
+import uk.co.thinkofdeath.parsing.parsers.ParseHint;
 import uk.co.thinkofdeath.parsing.validators.ArgumentValidator;
 
+import java.lang.reflect.Array;
 import java.util.Arrays;
 
 class ArgumentNode {
 
+    // The value of an optional argument that was left out, the
+    // method's default is used in its place
+    static final Object SKIPPED = new Object();
+
     final ArgumentParser parser;
     final ArgumentValidator[] type;
     final CommandNode node = new CommandNode();
 
     final Class<?> varargsType;
+    // String or CharSequence if the argument takes the rest of
+    // the command as entered, the node has no parser then
+    final Class<?> restType;
+    // Whether the argument takes all of the remaining tokens
+    final boolean greedy;
+    // Whether the argument can be left out, the node can then
+    // be reached without using a token
+    final boolean optional;
+    // Set if the value is passed to the handler without boxing
+    final PrimitiveType primitive;
+    // The parser's hints or null if it doesn't provide any
+    final ParseHint hint;
+    final int cost;
 
-    ArgumentNode(ArgumentParser parser, ArgumentValidator[] type, Class<?> varargsType) {
+    ArgumentNode(ArgumentParser parser, ArgumentValidator[] type, Class<?> varargsType, Class<?> restType,
+                 PrimitiveType primitive, boolean optional) {
         this.parser = parser;
         this.type = type;
         this.varargsType = varargsType;
+        this.restType = restType;
+        greedy = varargsType != null || restType != null;
+        this.optional = optional;
+        this.primitive = primitive;
+        hint = parser instanceof ParseHint ? (ParseHint) parser : null;
+        // Taking the rest of the command doesn't parse anything
+        cost = hint != null ? hint.getCost() : restType != null ? ParseHint.CHEAP : ParseHint.NORMAL;
+    }
+
+    /**
+     * Returns whether the parser could parse the token at the
+     * offset, or every token from the offset if this is a
+     * varargs argument, going by its hints
+     *
+     * @param tokens
+     *         The tokens of the command
+     * @param offset
+     *         The offset of the argument
+     * @return False if parsing would certainly fail
+     * @see uk.co.thinkofdeath.parsing.parsers.ParseHint#canParse(String)
+     */
+    boolean canParse(Tokens tokens, int offset) {
+        if (hint == null) {
+            return true;
+        }
+        int end = varargsType != null ? tokens.count() : offset + 1;
+        for (int i = offset; i < end; i++) {
+            if (!hint.canParse(tokens.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses and validates every token from the offset into an
+     * array of the varargs type. Arrays of primitives are filled
+     * with the parsed bits so the elements are never boxed
+     *
+     * @param parses
+     *         The parse memo of the search
+     * @param tokens
+     *         The tokens of the command
+     * @param offset
+     *         The offset of the argument
+     * @return The array or null if the parser returned null
+     * for one of the tokens
+     * @throws ParserException
+     *         If a token failed to parse or validate
+     */
+    @SuppressWarnings("unchecked")
+    Object parseVarargs(ParseMemo parses, Tokens tokens, int offset) throws ParserException {
+        int length = tokens.count() - offset;
+        if (primitive != null) {
+            Object out = primitive.newArray(length);
+            for (int i = 0; i < length; i++) {
+                primitive.store(out, i, parses.parse(parser, primitive, tokens, offset + i));
+            }
+            for (int i = 0; i < length; i++) {
+                long bits = primitive.load(out, i);
+                for (ArgumentValidator validator : type) {
+                    primitive.validate(validator, tokens.get(offset + i), bits);
+                }
+            }
+            return out;
+        }
+        Object out = Array.newInstance(varargsType, length);
+        // Primitive arrays filled by a parser without primitive
+        // support have to be set reflectively
+        Object[] outArray = varargsType.isPrimitive() ? null : (Object[]) out;
+        for (int i = 0; i < length; i++) {
+            Object parsed = parses.parse(parser, tokens, offset + i);
+            if (parsed == null) { // parser error?
+                return null;
+            }
+            if (outArray != null) {
+                outArray[i] = parsed;
+            } else {
+                Array.set(out, i, parsed);
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            Object value = outArray != null ? outArray[i] : parses.parse(parser, tokens, offset + i);
+            for (ArgumentValidator validator : type) {
+                validator.validate(tokens.get(offset + i), value);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Returns whether this argument parses and validates values
+     * in the same way as the passed parser, validators and types.
+     * Validators are compared by identity
+     *
+     * @param parser
+     *         The parser of the other argument
+     * @param validators
+     *         The validators of the other argument
+     * @param varargsType
+     *         The component type if the other argument is
+     *         varargs, otherwise null
+     * @param restType
+     *         The type of the other argument if it takes the
+     *         rest of the command, otherwise null
+     * @param primitive
+     *         The primitive type the other value is passed as,
+     *         or null
+     * @param optional
+     *         Whether the other argument can be left out
+     * @return Whether the arguments are equivalent
+     */
+    boolean isEquivalent(ArgumentParser parser, ArgumentValidator[] validators, Class<?> varargsType,
+                         Class<?> restType, PrimitiveType primitive, boolean optional) {
+        if (this.parser != parser || this.varargsType != varargsType || this.restType != restType
+                || this.primitive != primitive || this.optional != optional || type.length != validators.length) {
+            return false;
+        }
+        for (int i = 0; i < type.length; i++) {
+            if (type[i] != validators[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether this argument could accept the literal
+     * on a route of the same length as the literal's sub-command
+     *
+     * @param literal
+     *         The name of the sub-command
+     * @param subCommand
+     *         The sub-command's node
+     * @return False if the two can't match the same tokens
+     */
+    boolean overlaps(String literal, CommandNode subCommand) {
+        // When left out the literal is matched by the node after
+        // this instead of the parser
+        return (routeMask() & subCommand.routeMask()) != 0
+                && (optional || hint == null || hint.canParse(literal));
+    }
+
+    /**
+     * Returns the numbers of tokens, counting this argument's,
+     * that can reach a method through this argument
+     *
+     * @return The mask of token counts
+     * @see CommandNode#routeMask()
+     */
+    long routeMask() {
+        long mask = node.routeMask();
+        if (optional && mask != -1) {
+            // Routes that leave the argument out
+            mask |= mask >>> 1;
+        }
+        return mask;
+    }
+
+    /**
+     * Returns a short description of the argument for messages
+     *
+     * @return The description
+     */
+    String describe() {
+        if (restType != null) {
+            return "@Rest " + restType.getSimpleName();
+        }
+        String name = parser.getClass().getSimpleName();
+        if (name.isEmpty()) {
+            name = parser.getClass().getName();
+        }
+        if (optional) {
+            name = "@Optional " + name;
+        }
+        return varargsType != null ? name + "..." : name;
     }
 
     @Override
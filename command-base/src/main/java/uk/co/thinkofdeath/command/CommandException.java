@@ -16,17 +16,31 @@
 
 package uk.co.thinkofdeath.command;
 
+import uk.co.thinkofdeath.common.locale.LocaleHandler;
+
 /**
  * Thrown when the command couldn't be executed for any
- * reason
+ * reason. The message is the localised error which is only
+ * created the first time it is requested
  */
 public class CommandException extends Exception {
 
     private final CommandError error;
+    private final transient LocaleHandler localeHandler;
+    private volatile String message;
 
-    CommandException(CommandError error, String message) {
-        super(message);
+    CommandException(CommandError error, LocaleHandler localeHandler) {
         this.error = error;
+        this.localeHandler = localeHandler;
+    }
+
+    @Override
+    public String getMessage() {
+        String message = this.message;
+        if (message == null && localeHandler != null) {
+            message = this.message = error.localise(localeHandler);
+        }
+        return message;
     }
 
     /**
@@ -22,14 +22,23 @@ import uk.co.thinkofdeath.parsing.validators.ArgumentValidator;
 import uk.co.thinkofdeath.parsing.validators.TypeHandler;
 
 import java.lang.annotation.Annotation;
-import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A CommandManager handles registration and parsing
@@ -119,17 +128,32 @@ import java.util.regex.Pattern;
 public class CommandManager {
 
     private static final Object NO_ARG = new Object();
+    private static final int DEFAULT_SEARCH_LIMIT = 10000;
     private final CommandLocaleHandler localeHandler;
     private final CommandNode rootNode = new CommandNode();
+    // The number of commands the compiled tree couldn't execute
+    // and left to the interpreter, only counted for tests so
+    // racing updates don't matter
+    int fallbacks;
     private final HashMap<Class<?>, ArgumentParser> parsers = new HashMap<>();
-    private final Pattern splitter = Pattern.compile("(?:`(.*?)`)|(?:(.*?)(\\s|$))");
+    // Validators are shared between methods with equal
+    // annotations so equivalent arguments and checks common to
+    // a group of commands can be found by identity
+    private final HashMap<Annotation, ArgumentValidator> validators = new HashMap<>();
+    // The compiled trees for each caller class or null if the
+    // commands haven't been compiled
+    private ConcurrentHashMap<Class<?>, CompiledNode> compiledViews;
+    private final AtomicReference<SearchState> searchPool = new AtomicReference<>(new SearchState());
+    private int searchLimit = DEFAULT_SEARCH_LIMIT;
+    private boolean adaptiveOrdering;
 
     /**
      * Creates a CommandManager initialised with parsers
      * for basic types:
      * <ul>
      * <li>String</li>
-     * <li>int</li>
+     * <li>int, long, float, double and boolean</li>
+     * <li>UUID</li>
      * </ul>
      */
     public CommandManager() {
@@ -141,7 +165,8 @@ public class CommandManager {
      * for basic types:
      * <ul>
      * <li>String</li>
-     * <li>int</li>
+     * <li>int, long, float, double and boolean</li>
+     * <li>UUID</li>
      * </ul>
      *
      * <p>
@@ -159,7 +184,10 @@ public class CommandManager {
         this.localeHandler = localeHandler;
         addParser(String.class, new StringParser());
         addParser(int.class, new IntegerParser());
+        addParser(long.class, new LongParser());
+        addParser(float.class, new FloatParser());
         addParser(double.class, new DoubleParser());
+        addParser(boolean.class, new BooleanParser());
         addParser(UUID.class, new UUIDParser());
     }
 
@@ -209,10 +237,25 @@ public class CommandManager {
      * a type handler annotation on them for the executor
      * use them. For example {@link uk.co.thinkofdeath.parsing.validators.MaxLength}
      *
+     * <p>
+     *
+     * The last parameter may be annotated with
+     * {@link uk.co.thinkofdeath.command.Rest} to receive the
+     * rest of the command as it was entered instead of a
+     * single token
+     *
+     * <p>
+     *
+     * Parameters annotated with {@link uk.co.thinkofdeath.command.Optional}
+     * or {@link uk.co.thinkofdeath.command.Default} may be left
+     * out of the command
+     *
      * @param commandHandler
      *         The command handler to be added
      */
     public void register(CommandHandler commandHandler) {
+        // The compiled trees no longer match the commands
+        compiledViews = null;
         // We search through declared methods so that private
         // ones may be accessed. This allows for pure command
         // handling classes to be produced without exposing
@@ -242,11 +285,25 @@ public class CommandManager {
                 String[] args = localeHandler.getCommand(command.value()).split("\\s");
                 int argIndex = 1; // Skip the 'caller' argument
                 int[] argumentPositions = new int[methodArgs.length];
+                PrimitiveType[] primitives = new PrimitiveType[methodArgs.length];
+                // The values of optional arguments that are left out
+                Object[] defaults = new Object[methodArgs.length];
+                long[] defaultBits = new long[methodArgs.length];
                 // This starts at the at the root node and
                 // searches/creates branches until it reaches
                 // its end where it places the method to be
                 // called later
                 CommandNode currentNode = rootNode;
+                // The nodes on the route, used to record the number
+                // of tokens that reach the method from each one
+                ArrayList<CommandNode> route = new ArrayList<>();
+                route.add(currentNode);
+                // The number of optional arguments before each node
+                // on the route
+                ArrayList<Integer> optionalBefore = new ArrayList<>();
+                optionalBefore.add(0);
+                int optionalCount = 0;
+                boolean endsWithVarargs = false;
                 for (int i = 0; i < args.length; i++) {
                     String arg = args[i];
                     if (arg.startsWith("?")) { // Dynamic argument
@@ -264,8 +321,24 @@ public class CommandManager {
                         }
                         Class<?> argType = methodArgs[index];
 
+                        // Obtain the annotations with argument validators and create
+                        // instances of them using the annotation as the arguments
+                        Annotation[] annotations = methodArgAnnotations[index];
+
                         boolean varargs;
-                        if (method.isVarArgs() && methodArgs.length == index + 1) {
+                        Class<?> restType = null;
+                        if (hasRestAnnotation(annotations)) {
+                            for (int j = i + 1; j < args.length; j++) {
+                                if (!args[j].isEmpty()) {
+                                    throw new CommandRegisterException("@Rest needs to be the last argument");
+                                }
+                            }
+                            if (argType != String.class && argType != CharSequence.class) {
+                                throw new CommandRegisterException("@Rest requires a String or CharSequence");
+                            }
+                            restType = argType;
+                            varargs = false;
+                        } else if (method.isVarArgs() && methodArgs.length == index + 1) {
                             for (int j = i + 1; j < args.length; j++) {
                                 if (!args[j].isEmpty()) {
                                     throw new CommandRegisterException("Varargs needs to be last argument!");
@@ -278,30 +351,74 @@ public class CommandManager {
                             varargs = false;
                         }
 
-                        ArgumentParser parser = parsers.get(argType);
-                        if (parser == null) {
+                        // The rest of the command is passed as entered
+                        // so doesn't need a parser
+                        ArgumentParser parser = restType != null ? null : parsers.get(argType);
+                        if (parser == null && restType == null) {
                             throw new CommandRegisterException("No parser for " + argType.getSimpleName());
                         }
-                        // Obtain the annotations with argument validators and create
-                        // instances of them using the annotation as the arguments
-                        Annotation[] annotations = methodArgAnnotations[index];
-                        ArgumentValidator[] argCheckers = processCommandAnnotations(argType, annotations);
+                        ArgumentValidator[] argCheckers = processCommandAnnotations(argType, annotations, validators);
+
+                        // Primitives are passed to the method without
+                        // being boxed if the parser supports it, varargs
+                        // of primitives are filled without boxing
+                        PrimitiveType primitive = restType != null ? null : PrimitiveType.of(parser, argType);
+                        primitives[index] = varargs ? null : primitive;
 
-                        ArgumentNode argumentNode = new ArgumentNode(parser, argCheckers, varargs ? argType : null);
-                        currentNode.arguments.add(argumentNode);
+                        boolean optional = false;
+                        for (Annotation annotation : annotations) {
+                            if (annotation instanceof Optional || annotation instanceof Default) {
+                                if (varargs || restType != null) {
+                                    throw new CommandRegisterException("Varargs and @Rest arguments can't be optional");
+                                }
+                                optional = true;
+                                if (annotation instanceof Default) {
+                                    String value = ((Default) annotation).value();
+                                    try {
+                                        if (primitive != null) {
+                                            defaultBits[index] = parseDefault(parser, primitive, argCheckers, value);
+                                        } else {
+                                            defaults[index] = parseDefault(parser, argCheckers, value);
+                                        }
+                                    } catch (ParserException e) {
+                                        throw new CommandRegisterException("Invalid default value '" + value + "'");
+                                    }
+                                }
+                            }
+                        }
+
+                        // Share the node with an equivalent argument
+                        // at this position so it is only parsed once
+                        ArgumentNode argumentNode = currentNode.findArgument(parser, argCheckers,
+                                varargs ? argType : null, restType, primitive, optional);
+                        if (argumentNode == null) {
+                            argumentNode = new ArgumentNode(parser, argCheckers, varargs ? argType : null, restType,
+                                    primitive, optional);
+                            currentNode.addArgument(argumentNode);
+                        }
                         // Branch into the node
                         currentNode = argumentNode.node;
+                        route.add(currentNode);
+                        if (optional) {
+                            optionalCount++;
+                        }
+                        optionalBefore.add(optionalCount);
+                        endsWithVarargs = argumentNode.greedy;
                         // Save the location of the argument
                         argumentPositions[argIndex] = index;
                         argIndex++;
                     } else { // Constant
                         arg = arg.toLowerCase(); // We don't care about case for sub commands
-                        if (!currentNode.subCommands.containsKey(arg)) {
+                        CommandNode nextNode = currentNode.subCommands.get(arg);
+                        if (nextNode == null) {
                             // Creates the branch if it doesn't exist
-                            currentNode.subCommands.put(arg, new CommandNode());
+                            nextNode = new CommandNode();
+                            currentNode.subCommands.put(arg, nextNode);
                         }
                         // Branch into the node
-                        currentNode = currentNode.subCommands.get(arg);
+                        currentNode = nextNode;
+                        route.add(currentNode);
+                        optionalBefore.add(optionalCount);
                     }
                 }
 
@@ -312,25 +429,44 @@ public class CommandManager {
 
                 // If we followed the route and got to a node with a method already then
                 // another command has the same signature
-                if (currentNode.methods.containsKey(methodArgs[0])) {
+                if (currentNode.getMethod(methodArgs[0]) != null) {
                     throw new CommandRegisterException("Duplicate command");
                 }
 
                 ArgumentValidator[] argumentValidators1 = processCommandAnnotations(methodArgs[0],
-                        methodArgAnnotations[0]);
+                        methodArgAnnotations[0], validators);
                 ArgumentValidator[] argumentValidators2 = processCommandAnnotations(methodArgs[0],
-                        method.getAnnotations());
+                        method.getAnnotations(), validators);
 
                 ArgumentValidator[] argumentValidators = new ArgumentValidator[argumentValidators1.length + argumentValidators2.length];
                 System.arraycopy(argumentValidators1, 0, argumentValidators, 0, argumentValidators1.length);
                 System.arraycopy(argumentValidators2, 0, argumentValidators, argumentValidators1.length, argumentValidators2.length);
 
-                currentNode.methods.put(methodArgs[0],
+                currentNode.addMethod(
                         new CommandNode.CommandMethod(
                                 method,
                                 commandHandler,
                                 argumentValidators,
-                                argumentPositions));
+                                argumentPositions,
+                                primitives,
+                                defaults,
+                                defaultBits));
+                for (int i = 0; i < route.size(); i++) {
+                    CommandNode node = route.get(i);
+                    // Any of the optional arguments after the node
+                    // may be left out
+                    int tokens = route.size() - 1 - i;
+                    int skippable = optionalCount - optionalBefore.get(i);
+                    if (endsWithVarargs) {
+                        node.addArity(tokens - skippable, true);
+                    } else {
+                        for (int t = tokens - skippable; t <= tokens; t++) {
+                            node.addArity(t, false);
+                        }
+                    }
+                    // The method may be reachable by new callers
+                    node.clearViews();
+                }
             }
         }
     }
@@ -380,9 +516,41 @@ public class CommandManager {
         }
     }
 
+    // Parses the default value of a primitive argument
+    private static long parseDefault(ArgumentParser parser, PrimitiveType primitive, ArgumentValidator[] validators,
+                                     String value) throws ParserException {
+        long bits = primitive.parse(parser, value);
+        for (ArgumentValidator validator : validators) {
+            primitive.validate(validator, value, bits);
+        }
+        return bits;
+    }
+
+    // Parses the default value of an argument
+    @SuppressWarnings("unchecked")
+    private static Object parseDefault(ArgumentParser parser, ArgumentValidator[] validators, String value)
+            throws ParserException {
+        Object out = parser.parse(value);
+        for (ArgumentValidator validator : validators) {
+            validator.validate(value, out);
+        }
+        return out;
+    }
+
+    private static boolean hasRestAnnotation(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof Rest) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // Obtains the annotations with argument validators and create
-    // instances of them using the annotation as the arguments
-    private ArgumentValidator[] processCommandAnnotations(Class<?> argType, Annotation[] annotations) {
+    // instances of them using the annotation as the arguments.
+    // Instances are reused for equal annotations
+    private ArgumentValidator[] processCommandAnnotations(Class<?> argType, Annotation[] annotations,
+                                                          HashMap<Annotation, ArgumentValidator> shared) {
         try {
             ArrayList<ArgumentValidator> argumentValidators = new ArrayList<>();
             for (Annotation annotation : annotations) {
@@ -393,9 +561,13 @@ public class CommandManager {
                 if (!handler.clazz().isAssignableFrom(argType)) {
                     throw new RuntimeException(argType.getSimpleName() + " requires " + handler.clazz().getSimpleName());
                 }
-                Constructor<? extends ArgumentValidator> constructor = handler.value().getDeclaredConstructor(annotation.annotationType());
-                constructor.setAccessible(true);
-                ArgumentValidator type = constructor.newInstance(annotation);
+                ArgumentValidator type = shared.get(annotation);
+                if (type == null) {
+                    Constructor<? extends ArgumentValidator> constructor = handler.value().getDeclaredConstructor(annotation.annotationType());
+                    constructor.setAccessible(true);
+                    type = constructor.newInstance(annotation);
+                    shared.put(annotation, type);
+                }
                 argumentValidators.add(type);
 
             }
@@ -410,6 +582,13 @@ public class CommandManager {
      * with the passed arguments (if any). This is a helper for APIs
      * that provide arguments as an array instead of the full string
      *
+     * <p>
+     *
+     * The arguments are used as tokens without splitting the
+     * command again, an argument starting with a '`' quote is
+     * still joined with the arguments that follow it up to the
+     * closing quote
+     *
      * @param caller
      *         The caller to call as
      * @param name
@@ -420,7 +599,10 @@ public class CommandManager {
      *         Thrown if the command failed to execute
      */
     public void execute(Object caller, String name, String... args) throws CommandException {
-        execute(caller, join(name, args));
+        CommandResult result = tryExecute(caller, name, args);
+        if (!result.isSuccess()) {
+            throw new CommandException(result.getError(), localeHandler);
+        }
     }
 
     /**
@@ -434,146 +616,558 @@ public class CommandManager {
      *         The command
      * @throws CommandException
      *         Thrown if the command failed to execute
+     * @see #tryExecute(Object, String)
      */
     public void execute(Object caller, String command) throws CommandException {
-        // lastError encountered whilst executing.
-        CommandError lastError = null;
-        String[] args = split(command);
-        // Stores the states we can return to if the current route fails
-        Stack<CommandState> toTry = new Stack<>();
-        toTry.add(new CommandState(rootNode, caller, 0));
-        // Try every possible route until we match a command or
-        // run out of options
-        while (!toTry.isEmpty()) {
-            CommandState state = toTry.pop();
-            CommandNode currentNode = state.node;
-            int offset = state.offset;
-            // We have enough arguments try executing the command
-            if (offset == args.length) {
-                if (currentNode.methods.size() == 0) {
-                    // No command here
-                    if (lastError == null || lastError.getPriority() < 1) {
-                        lastError = new CommandError(1, "command.unknown");
+        CommandResult result = tryExecute(caller, command);
+        if (!result.isSuccess()) {
+            throw new CommandException(result.getError(), localeHandler);
+        }
+    }
+
+    /**
+     * Tries to execute the command with the passed name as the
+     * passed caller with the passed arguments (if any). This is
+     * a helper for APIs that provide arguments as an array instead
+     * of the full string
+     *
+     * @param caller
+     *         The caller to call as
+     * @param name
+     *         The name of the command
+     * @param args
+     *         The arguments of the command (if any)
+     * @return The result of executing the command
+     * @see #tryExecute(Object, String)
+     */
+    public CommandResult tryExecute(Object caller, String name, String... args) {
+        SearchState search = acquireSearch();
+        search.tokens.tokenize(name, args);
+        return tryExecute(caller, search);
+    }
+
+    /**
+     * Tries to execute the command as the passed caller. This
+     * works like {@link #execute(Object, String)} but returns
+     * why the command failed instead of throwing a
+     * {@link uk.co.thinkofdeath.command.CommandException}, which
+     * is cheaper when failures are common (e.g. when commands are
+     * entered by players).
+     *
+     * <p>
+     *
+     * Exceptions thrown by the handler of the command are not
+     * caught
+     *
+     * @param caller
+     *         The caller to call as
+     * @param command
+     *         The command
+     * @return The result of executing the command
+     */
+    public CommandResult tryExecute(Object caller, String command) {
+        SearchState search = acquireSearch();
+        search.tokens.tokenize(command);
+        return tryExecute(caller, search);
+    }
+
+    // Executes the command already split into the search's
+    // tokens, the search is released once done
+    private CommandResult tryExecute(Object caller, SearchState search) {
+        try {
+            return dispatch(caller, search);
+        } finally {
+            releaseSearch(search);
+        }
+    }
+
+    private CommandResult dispatch(Object caller, SearchState search) {
+        Tokens tokens = search.tokens;
+        search.setLimit(searchLimit);
+        ConcurrentHashMap<Class<?>, CompiledNode> views = compiledViews;
+        if (views != null) {
+            CompiledNode compiled = views.get(caller.getClass());
+            if (compiled == null) {
+                compiled = CompiledNode.compile(rootNode, caller.getClass(), adaptiveOrdering);
+                views.put(caller.getClass(), compiled);
+            }
+            search.path(compiled.depth)[0] = caller;
+            if (compiled.dispatch(caller, tokens, 0, search, 1)) {
+                return CommandResult.SUCCESS;
+            }
+            // Fall through to the interpreter to find out
+            // why the command failed
+            fallbacks++;
+        }
+        return interpret(caller, tokens, search);
+    }
+
+    /**
+     * Executes the command as the passed caller, calling the
+     * handler on the executor. The command is parsed and
+     * validated on the calling thread so a command that fails
+     * to do so returns a future that has already failed.
+     *
+     * <p>
+     *
+     * The future's value is the value returned by the handler.
+     * A handler may return a {@link java.util.concurrent.Future}
+     * (e.g. for I/O it started itself) in which case the returned
+     * future completes with it, no thread is kept waiting for it.
+     * If the command fails to execute, the handler throws
+     * (errors included) or the handler's future fails the future
+     * fails with a {@link uk.co.thinkofdeath.command.CommandException},
+     * the exception thrown by the handler is its cause
+     *
+     * @param caller
+     *         The caller to call as
+     * @param command
+     *         The command
+     * @param executor
+     *         The executor to call the handler on
+     * @return The future result of the handler
+     * @see #execute(Object, String)
+     */
+    public Future<Object> executeAsync(Object caller, String command, Executor executor) {
+        SearchState search = acquireSearch();
+        final CommandResult result;
+        final CommandNode.CommandMethod method;
+        final Object[] arguments;
+        final long[] primitives;
+        try {
+            search.tokens.tokenize(command);
+            search.deferCalls = true;
+            result = dispatch(caller, search);
+            method = search.deferredMethod;
+            arguments = search.deferredArguments;
+            primitives = search.deferredPrimitives;
+        } finally {
+            releaseSearch(search);
+        }
+        AsyncResult async = new AsyncResult(new Callable<Object>() {
+            @Override
+            public Object call() throws CommandException {
+                if (!result.isSuccess()) {
+                    throw new CommandException(result.getError(), localeHandler);
+                }
+                try {
+                    return invoke(method, arguments, primitives);
+                } catch (RuntimeException e) {
+                    throw handlerException(handlerCause(e));
+                } catch (Error e) {
+                    throw handlerException(e);
+                }
+            }
+        });
+        if (result.isSuccess()) {
+            executor.execute(async.call);
+        } else {
+            // Fail straight away
+            async.call.run();
+        }
+        return async;
+    }
+
+    private CommandException handlerException(Throwable cause) {
+        CommandException exception = new CommandException(new CommandError(1, "command.exception"), localeHandler);
+        exception.initCause(cause);
+        return exception;
+    }
+
+    // The result of executeAsync, once the handler has returned a
+    // future of its own every method is forwarded to that instead
+    private final class AsyncResult implements Future<Object> {
+        private final FutureTask<Object> call;
+
+        private AsyncResult(Callable<Object> handler) {
+            call = new FutureTask<>(handler);
+        }
+
+        // Returns the future returned by the handler or null if
+        // the handler hasn't returned one (yet)
+        private Future<?> returned() {
+            if (!call.isDone() || call.isCancelled()) {
+                return null;
+            }
+            try {
+                Object value = call.get();
+                return value instanceof Future ? (Future<?>) value : null;
+            } catch (InterruptedException | ExecutionException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (call.cancel(mayInterruptIfRunning)) {
+                return true;
+            }
+            Future<?> returned = returned();
+            return returned != null && returned.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            Future<?> returned = returned();
+            return call.isCancelled() || returned != null && returned.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            Future<?> returned = returned();
+            return call.isDone() && (returned == null || returned.isDone());
+        }
+
+        @Override
+        public Object get() throws InterruptedException, ExecutionException {
+            Object value = call.get();
+            if (!(value instanceof Future)) {
+                return value;
+            }
+            try {
+                return ((Future<?>) value).get();
+            } catch (ExecutionException e) {
+                throw new ExecutionException(handlerException(e.getCause()));
+            }
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            Object value = call.get(timeout, unit);
+            if (!(value instanceof Future)) {
+                return value;
+            }
+            try {
+                return ((Future<?>) value).get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                throw new ExecutionException(handlerException(e.getCause()));
+            }
+        }
+    }
+
+    /**
+     * Executes each of the commands in order as the passed
+     * caller
+     *
+     * @param caller
+     *         The caller to call as
+     * @param commands
+     *         The commands
+     * @return The result of each command
+     * @see #executeBatch(java.util.List, java.util.List)
+     */
+    public List<CommandResult> executeBatch(Object caller, List<String> commands) {
+        return executeBatch(Collections.nCopies(commands.size(), caller), commands);
+    }
+
+    /**
+     * Executes each of the commands in order as the caller at the
+     * same index. This works like calling
+     * {@link #tryExecute(Object, String)} for each command but
+     * the search state is reused between them and an exception
+     * thrown by a handler doesn't stop the batch, it is returned
+     * as the result of its command instead
+     *
+     * @param callers
+     *         The caller of each command
+     * @param commands
+     *         The commands
+     * @return The result of each command
+     * @see uk.co.thinkofdeath.command.CommandResult.Status#EXCEPTION
+     */
+    public List<CommandResult> executeBatch(List<?> callers, List<String> commands) {
+        return executeBatch(callers, commands, null);
+    }
+
+    /**
+     * Executes each of the commands as the caller at the same
+     * index, calling the handlers marked with
+     * {@link uk.co.thinkofdeath.command.ThreadSafe} on the pool.
+     *
+     * <p>
+     *
+     * Commands are still parsed in order on the calling thread so
+     * parsers don't need to be thread safe. The handlers of
+     * consecutive commands marked as thread safe may run in any
+     * order, any other handler is called on the calling thread
+     * once they have all returned so its call sees the effects of
+     * every command before it.
+     *
+     * <p>
+     *
+     * Only the handler calls are ordered. A command is parsed and
+     * validated (caller validators included) straight after the
+     * one before it, possibly while earlier thread safe handlers
+     * are still running, so a parser or validator reading state
+     * that those handlers change (e.g. which players are online)
+     * may not see their effects yet
+     *
+     * @param callers
+     *         The caller of each command
+     * @param commands
+     *         The commands
+     * @param pool
+     *         The pool to call thread safe handlers on or null
+     *         to call every handler in order
+     * @return The result of each command
+     * @see #executeBatch(java.util.List, java.util.List)
+     */
+    public List<CommandResult> executeBatch(List<?> callers, List<String> commands, ForkJoinPool pool) {
+        if (callers.size() != commands.size()) {
+            throw new IllegalArgumentException("Expected a caller for each command");
+        }
+        CommandResult[] results = new CommandResult[commands.size()];
+        List<ForkJoinTask<?>> running = new ArrayList<>();
+        SearchState search = acquireSearch();
+        try {
+            Iterator<?> caller = callers.iterator();
+            int index = 0;
+            for (String command : commands) {
+                search.reset();
+                search.tokens.tokenize(command);
+                search.deferCalls = pool != null;
+                CommandResult result;
+                try {
+                    result = dispatch(caller.next(), search);
+                } catch (RuntimeException e) {
+                    result = CommandResult.exception(handlerCause(e));
+                }
+                results[index] = result;
+                if (result.isSuccess() && pool != null) {
+                    BatchCall call = new BatchCall(search.deferredMethod, search.deferredArguments,
+                            search.deferredPrimitives, results, index);
+                    if (call.method.threadSafe) {
+                        running.add(pool.submit(call));
+                    } else {
+                        awaitAll(running);
+                        call.compute();
                     }
-                    continue;
                 }
-                // Check the caller
-                callCheck:
-                for (CommandNode.CommandMethod method : currentNode.methods.values()) {
-                    Class<?> type = method.method.getParameterTypes()[0];
-                    if (type.isAssignableFrom(caller.getClass())) {
-
-                        for (ArgumentValidator t : method.argumentValidators) {
-                            try {
-                                t.validate(null, caller);
-                            } catch (ParserException e) {
-                                if (lastError == null || lastError.getPriority() < e.getPriority()) {
-                                    lastError = new CommandError(e.getPriority(), e.getKey(), e.getArguments());
-                                }
-                                continue callCheck;
-                            }
-                        }
+                index++;
+            }
+            awaitAll(running);
+        } finally {
+            releaseSearch(search);
+        }
+        return Arrays.asList(results);
+    }
 
-                        ArrayList<Object> arguments = new ArrayList<>();
+    private static void awaitAll(List<ForkJoinTask<?>> tasks) {
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        tasks.clear();
+    }
 
-                        CommandState currentState = state;
-                        while (currentState != null) {
-                            if (currentState.argument != NO_ARG) {
-                                arguments.add(currentState.argument);
-                            }
-                            currentState = currentState.parent;
-                        }
+    // A handler call deferred by a batch, replaces the result
+    // of its command if the handler throws
+    private static final class BatchCall extends RecursiveAction {
+        private final CommandNode.CommandMethod method;
+        private final Object[] arguments;
+        private final long[] primitives;
+        private final CommandResult[] results;
+        private final int index;
 
+        private BatchCall(CommandNode.CommandMethod method, Object[] arguments, long[] primitives,
+                          CommandResult[] results, int index) {
+            this.method = method;
+            this.arguments = arguments;
+            this.primitives = primitives;
+            this.results = results;
+            this.index = index;
+        }
 
-                        Object[] processedArguments = new Object[arguments.size()];
-                        for (int i = 0; i < processedArguments.length; i++) {
-                            processedArguments[method.argumentPositions[i]] = arguments.get(arguments.size() - i - 1);
-                        }
+        @Override
+        protected void compute() {
+            try {
+                CommandManager.invoke(method, arguments, primitives);
+            } catch (RuntimeException e) {
+                results[index] = CommandResult.exception(handlerCause(e));
+            }
+        }
+    }
 
-                        try {
-                            method.method.invoke(method.owner, processedArguments);
-                        } catch (IllegalAccessException | InvocationTargetException e) {
-                            // Propagate errors
-                            if (e.getCause() != null && e.getCause() instanceof Error) {
-                                throw (Error) e.getCause();
+    private CommandResult interpret(Object caller, Tokens tokens, SearchState search) {
+        Class<?> callerClass = caller.getClass();
+        // Failures are recorded in the search and only the
+        // highest priority one becomes an error
+        // Stores the states we can return to if the current route fails
+        search.push(rootNode, caller, 0, -1);
+        // Try every possible route until we match a command or
+        // run out of options
+        while (search.hasPending()) {
+            int state = search.pop();
+            if (state < 0) {
+                // Every route from this state has been tried and
+                // failed, don't try it again if another route
+                // leads back to it
+                state = ~state;
+                search.markFailed(search.nodes[state], search.offsets[state]);
+                continue;
+            }
+            CommandNode currentNode = search.nodes[state];
+            int offset = search.offsets[state];
+            if (search.hasFailed(currentNode, offset)) {
+                continue;
+            }
+            if (!search.explore()) {
+                return CommandResult.failure(CommandResult.Status.TOO_COMPLEX, new CommandError(1, "command.too.complex"));
+            }
+            // We have enough arguments try executing the command
+            if (offset == tokens.count()) {
+                search.markFailed(currentNode, offset);
+                CommandNode.CommandMethod[] methods = currentNode.view(callerClass).methods;
+                if (currentNode.methodArray.length == 0) {
+                    // No command here
+                    search.fail(CommandResult.Status.NOT_FOUND, 1, "command.unknown");
+                } else if (methods.length == 0) {
+                    // Incorrect caller
+                    search.fail(CommandResult.Status.INCORRECT_CALLER, 1, "command.incorrect.caller");
+                }
+                for (CommandNode.CommandMethod method : methods) {
+                    ParserException denied = search.checkCaller(method.argumentValidators, caller);
+                    if (denied != null) {
+                        search.failCaller(denied);
+                        continue;
+                    }
+
+                    // Walk back up the route filling in the
+                    // arguments from the last to the first
+                    Object[] processedArguments = search.frame(method.argumentPositions.length);
+                    long[] primitiveArguments = search.primitiveFrame(processedArguments.length);
+                    int i = processedArguments.length;
+                    for (int current = state; current != -1; current = search.parents[current]) {
+                        if (search.values[current] != NO_ARG) {
+                            int position = method.argumentPositions[--i];
+                            if (search.values[current] == ArgumentNode.SKIPPED) {
+                                method.fillDefault(position, processedArguments, primitiveArguments);
+                            } else if (method.primitives[position] != null) {
+                                primitiveArguments[position] = search.primitives[current];
                             } else {
-                                throw new RuntimeException(e);
+                                processedArguments[position] = search.values[current];
                             }
                         }
-                        return;
-                    } else {
-                        // Incorrect caller
-                        if (lastError == null || lastError.getPriority() < 1) {
-                            lastError = new CommandError(1, "command.incorrect.caller");
-                        }
                     }
+
+                    try {
+                        search.call(method, processedArguments, primitiveArguments);
+                    } finally {
+                        search.clearFrame(processedArguments);
+                    }
+                    return CommandResult.SUCCESS;
                 }
+                // Optional arguments at the end can be left out
+                pushSkipped(currentNode, caller, callerClass, tokens, offset, state, search);
                 continue;
             }
-            String arg = args[offset];
-            String argLower = arg.toLowerCase(); // For checking sub commands
+            search.pushFinished(state);
+            // Leaving out optional arguments is tried after every
+            // route that parses the token
+            pushSkipped(currentNode, caller, callerClass, tokens, offset, state, search);
             // Try matching against all the argument types
             argTypes:
             for (ArgumentNode argumentNode : currentNode.arguments) {
-                Object out;
-                Object[] outArray;
-                try {
-                    if (argumentNode.varargsType != null) {
-                        out = Array.newInstance(argumentNode.varargsType, args.length - offset);
-                        outArray = (Object[]) out;
-                        for (int i = offset; i < args.length; i++) {
-                            Object parsed = argumentNode.parser.parse(args[i]);
-                            if (parsed == null) { // parser error?
-                                continue argTypes;
-                            }
-                            outArray[i - offset] = parsed;
+                // Don't parse the argument unless the rest of the
+                // command could actually reach a method through it
+                if (!argumentNode.node.matches(tokens,
+                        argumentNode.greedy ? tokens.count() : offset + 1, search)) {
+                    continue;
+                }
+                // or if the caller can't use it
+                if (!canEnter(argumentNode.node, caller, callerClass, search)) {
+                    continue;
+                }
+                if (argumentNode.restType != null) {
+                    Object rest = argumentNode.restType == String.class
+                            ? tokens.rest(offset)
+                            : tokens.restView(offset);
+                    try {
+                        for (ArgumentValidator type : argumentNode.type) {
+                            type.validate(rest.toString(), rest);
                         }
-                        offset = args.length - 1;
-                    } else {
-                        out = argumentNode.parser.parse(arg);
-                        if (out == null) { // parser error?
-                            continue;
+                    } catch (ParserException e) {
+                        search.fail(e);
+                        continue;
+                    }
+                    search.push(argumentNode.node, rest, tokens.count(), state);
+                    continue;
+                }
+                if (argumentNode.varargsType != null) {
+                    Object out;
+                    try {
+                        out = argumentNode.parseVarargs(search.parses, tokens, offset);
+                    } catch (ParserException e) {
+                        search.fail(e);
+                        continue;
+                    }
+                    if (out == null) { // parser error?
+                        continue;
+                    }
+                    search.push(argumentNode.node, out, tokens.count(), state);
+                    continue;
+                }
+                if (argumentNode.primitive != null) {
+                    // Parsed and validated without boxing the value
+                    long bits;
+                    try {
+                        bits = search.parses.parse(argumentNode.parser, argumentNode.primitive, tokens, offset);
+                        for (ArgumentValidator type : argumentNode.type) {
+                            argumentNode.primitive.validate(type, tokens.get(offset), bits);
                         }
-                        outArray = null;
+                    } catch (ParserException e) {
+                        search.fail(e);
+                        continue;
                     }
-                } catch (ParserException e) {
-                    if (lastError == null || lastError.getPriority() < e.getPriority()) {
-                        lastError = new CommandError(e.getPriority(), e.getKey(), e.getArguments());
+                    search.push(argumentNode.node, bits, offset + 1, state);
+                    continue;
+                }
+                Object out;
+                try {
+                    out = search.parses.parse(argumentNode.parser, tokens, offset);
+                    if (out == null) { // parser error?
+                        continue;
                     }
+                } catch (ParserException e) {
+                    search.fail(e);
                     continue;
                 }
                 for (ArgumentValidator type : argumentNode.type) {
                     try {
-                        if (outArray != null) {
-                            for (Object o : outArray) {
-                                type.validate(arg, o);
-                            }
-                        } else {
-                            type.validate(arg, out);
-                        }
+                        type.validate(tokens.get(offset), out);
                     } catch (ParserException e) {
-                        if (lastError == null || lastError.getPriority() < e.getPriority()) {
-                            lastError = new CommandError(e.getPriority(), e.getKey(), e.getArguments());
-                        }
+                        search.fail(e);
                         continue argTypes;
                     }
                 }
-                CommandState newState = new CommandState(argumentNode.node, out, offset + 1);
-                newState.parent = state;
-                toTry.add(newState);
+                search.push(argumentNode.node, out, offset + 1, state);
             }
-            // Check sub-commands
-            if (currentNode.subCommands.containsKey(argLower)) {
-                CommandNode nextNode = currentNode.subCommands.get(argLower);
-                CommandState newState = new CommandState(nextNode, NO_ARG, offset + 1);
-                newState.parent = state;
-                toTry.add(newState);
+            // Check sub-commands, matching the token in place
+            CommandNode nextNode = currentNode.subCommands.get(tokens.source(), tokens.start(offset), tokens.end(offset));
+            if (nextNode != null && nextNode.matches(tokens, offset + 1, search)
+                    && canEnter(nextNode, caller, callerClass, search)) {
+                search.push(nextNode, NO_ARG, offset + 1, state);
             }
         }
-        if (lastError == null || lastError.getPriority() < 1) {
-            lastError = new CommandError(1, "command.unknown");
+        return search.failure();
+    }
+
+    // Returns whether the caller can reach a method through the
+    // node and passes the caller validators shared by all of
+    // them, recording why not in the search
+    private static boolean canEnter(CommandNode node, Object caller, Class<?> callerClass, SearchState search) {
+        CommandNode.CallerView view = node.view(callerClass);
+        if (!view.reachable) {
+            search.fail(CommandResult.Status.INCORRECT_CALLER, 1, "command.incorrect.caller");
+            return false;
+        }
+        ParserException denied = search.checkCaller(view.callerChecks, caller);
+        if (denied != null) {
+            search.failCaller(denied);
+            return false;
         }
-        throw new CommandException(lastError, lastError.localise(localeHandler));
+        return true;
     }
 
 
@@ -590,7 +1184,7 @@ public class CommandManager {
      * @return A list of possible completions
      */
     public List<String> complete(String name, String... args) {
-        return complete(join(name, args));
+        return completeFor(null, name, args);
     }
 
     /**
@@ -602,63 +1196,375 @@ public class CommandManager {
      * @return A list of possible completions
      */
     public List<String> complete(String command) {
+        return completeFor(null, command);
+    }
+
+    /**
+     * Provides a list of possible completions for the
+     * command as the passed caller, only completing commands
+     * the caller can call. This is a helper for APIs that
+     * provide arguments as an array instead of the full string
+     *
+     * @param caller
+     *         The caller to complete for
+     * @param name
+     *         The name of the command
+     * @param args
+     *         The arguments of the command (if any)
+     * @return A list of possible completions
+     */
+    public List<String> completeFor(Object caller, String name, String... args) {
+        SearchState search = acquireSearch();
+        search.tokens.tokenize(name, args);
+        return complete(caller, search);
+    }
+
+    /**
+     * Provides a list of possible completions for the
+     * command as the passed caller, only completing commands
+     * the caller can call. Follows the same rules a
+     * {@link #execute(Object, String)}
+     *
+     * @param caller
+     *         The caller to complete for
+     * @param command
+     *         The command to complete
+     * @return A list of possible completions
+     */
+    public List<String> completeFor(Object caller, String command) {
+        SearchState search = acquireSearch();
+        search.tokens.tokenize(command);
+        return complete(caller, search);
+    }
+
+    // Completes the command already split into the search's
+    // tokens for the caller, or any caller if null. The search
+    // is released once done
+    private List<String> complete(Object caller, SearchState search) {
         Set<String> completions = new HashSet<>();
-        String[] args = split(command);
-        // Stores the states we can return to if the current route fails
-        Stack<CommandState> toTry = new Stack<>();
-        toTry.add(new CommandState(rootNode, null, 0));
-        // Try every possible route until we match a command or
-        // run out of options
-        while (!toTry.isEmpty()) {
-            CommandState state = toTry.pop();
-            CommandNode currentNode = state.node;
-            int offset = state.offset;
-
-            String arg = args[offset];
-            String argLower = arg.toLowerCase(); // For checking sub commands
-            // We have enough arguments try completing the command
-            if (offset == args.length - 1) {
-                for (String sub : currentNode.subCommands.keySet()) {
-                    if (sub.startsWith(argLower)) {
-                        completions.add(sub);
-                    }
+        try {
+            Tokens tokens = search.tokens;
+            search.setLimit(searchLimit);
+            // Stores the states we can return to if the current route fails
+            search.push(rootNode, null, 0, -1);
+            // Try every possible route until we match a command or
+            // run out of options
+            while (search.hasPending()) {
+                int state = search.pop();
+                CommandNode currentNode = search.nodes[state];
+                int offset = search.offsets[state];
+                // Completions from a state only depend on the node
+                // and offset so never visit one twice
+                if (search.hasFailed(currentNode, offset)) {
+                    continue;
                 }
-
-                for (ArgumentNode argumentNode : currentNode.arguments) {
-                    completions.addAll(argumentNode.parser.complete(arg));
+                search.markFailed(currentNode, offset);
+                if (!search.explore()) {
+                    // Return what has been found so far
+                    break;
                 }
-                continue;
-            }
-            // Try matching against all the argument types
-            argTypes:
-            for (ArgumentNode argumentNode : currentNode.arguments) {
-                Object out;
-                try {
-                    out = argumentNode.parser.parse(arg);
-                } catch (ParserException e) {
-                    continue;
+                // Optional arguments may be left out
+                for (ArgumentNode argumentNode : currentNode.arguments) {
+                    if (argumentNode.optional && argumentNode.node.acceptsAtLeast(tokens.count() - offset)
+                            && isReachable(argumentNode.node, caller, search)) {
+                        search.push(argumentNode.node, null, offset, state);
+                    }
                 }
-                if (out == null) {
+
+                String arg = tokens.get(offset);
+                // We have enough arguments try completing the command
+                if (offset == tokens.count() - 1) {
+                    LiteralTable<CommandNode> subCommands = currentNode.subCommands;
+                    for (int i = 0; i < subCommands.capacity(); i++) {
+                        String sub = subCommands.keyAt(i);
+                        if (sub != null && tokens.isPrefixOf(offset, sub)
+                                && isReachable(subCommands.valueAt(i), caller, search)) {
+                            completions.add(sub);
+                        }
+                    }
+
+                    for (ArgumentNode argumentNode : currentNode.arguments) {
+                        // Nothing to suggest for the rest of a command
+                        if (argumentNode.restType == null && isReachable(argumentNode.node, caller, search)) {
+                            completions.addAll(argumentNode.parser.complete(arg));
+                        }
+                    }
                     continue;
                 }
-                for (ArgumentValidator type : argumentNode.type) {
+                // Try matching against all the argument types
+                argTypes:
+                for (ArgumentNode argumentNode : currentNode.arguments) {
+                    // Skip routes that can't take enough tokens to
+                    // reach the one being completed or that the
+                    // caller can't call anything through
+                    if (argumentNode.varargsType == null
+                            && !argumentNode.node.acceptsAtLeast(tokens.count() - offset - 1)) {
+                        continue;
+                    }
+                    // Nothing can follow the rest of the command
+                    if (argumentNode.restType != null) {
+                        continue;
+                    }
+                    if (!isReachable(argumentNode.node, caller, search)) {
+                        continue;
+                    }
+                    Object out;
                     try {
-                        type.validate(arg, out);
+                        out = search.parses.parse(argumentNode.parser, tokens, offset);
                     } catch (ParserException e) {
-                        continue argTypes;
+                        continue;
+                    }
+                    if (out == null) {
+                        continue;
                     }
+                    for (ArgumentValidator type : argumentNode.type) {
+                        try {
+                            type.validate(arg, out);
+                        } catch (ParserException e) {
+                            continue argTypes;
+                        }
+                    }
+                    search.push(argumentNode.node, null, offset + 1, state);
+                }
+                // Check sub-commands
+                CommandNode newNode = currentNode.subCommands.get(tokens.source(), tokens.start(offset), tokens.end(offset));
+                if (newNode != null && newNode.acceptsAtLeast(tokens.count() - offset - 1)
+                        && isReachable(newNode, caller, search)) {
+                    search.push(newNode, null, offset + 1, state);
                 }
-                toTry.add(new CommandState(argumentNode.node, null, offset + 1));
-            }
-            // Check sub-commands
-            if (currentNode.subCommands.containsKey(argLower)) {
-                CommandNode newNode = currentNode.subCommands.get(argLower);
-                toTry.add(new CommandState(newNode, null, offset + 1));
             }
+        } finally {
+            releaseSearch(search);
         }
         return new ArrayList<>(completions);
     }
 
+    // Follows the skip edges of the node's optional arguments to
+    // the nodes after them without using a token, the arguments
+    // take their default values
+    private static void pushSkipped(CommandNode node, Object caller, Class<?> callerClass, Tokens tokens,
+                                    int offset, int state, SearchState search) {
+        for (ArgumentNode argumentNode : node.arguments) {
+            if (argumentNode.optional && argumentNode.node.matches(tokens, offset, search)
+                    && canEnter(argumentNode.node, caller, callerClass, search)) {
+                search.push(argumentNode.node, ArgumentNode.SKIPPED, offset, state);
+            }
+        }
+    }
+
+    // Whether the caller can use the node, always true if the
+    // caller isn't known
+    private static boolean isReachable(CommandNode node, Object caller, SearchState search) {
+        if (caller == null) {
+            return true;
+        }
+        CommandNode.CallerView view = node.view(caller.getClass());
+        return view.reachable && search.checkCaller(view.callerChecks, caller) == null;
+    }
+
+    /**
+     * Sets the maximum number of states a single execution or
+     * completion of a command may explore. Overloaded commands
+     * are matched by trying every possible route through the
+     * registered commands, this places a bound on the work a
+     * (possibly malicious) long command can cause.
+     *
+     * <p>
+     *
+     * When the limit is reached executing fails with a
+     * {@link uk.co.thinkofdeath.command.CommandException} with
+     * the error key {@code command.too.complex} and completing
+     * returns the completions found so far.
+     *
+     * <p>
+     *
+     * The default limit is 10000
+     *
+     * @param limit
+     *         The maximum number of states to explore
+     */
+    public void setSearchLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The search limit must be positive");
+        }
+        searchLimit = limit;
+    }
+
+    /**
+     * Resolves the command to the handler a caller of the passed
+     * class would reach so it can be executed repeatedly without
+     * being tokenized or searched for each time. Arguments given
+     * as a {@code ?} are parameters bound before each execution,
+     * the other arguments are parsed once now.
+     *
+     * <p>
+     *
+     * When overloads of the command could take the parameters
+     * the types select between them, without types the first
+     * route that executing the command would try is used
+     *
+     * @param callerClass
+     *         The class of the callers that will execute it
+     * @param command
+     *         The command with a {@code ?} for each parameter
+     * @param types
+     *         The types of the parameters (if any)
+     * @return The prepared command
+     * @throws CommandException
+     *         Thrown if the command doesn't match a handler the
+     *         caller class can call
+     * @see uk.co.thinkofdeath.command.PreparedCommand
+     */
+    public PreparedCommand prepare(Class<?> callerClass, String command, Class<?>... types) throws CommandException {
+        return PreparedCommand.prepare(rootNode, callerClass, command, types, localeHandler);
+    }
+
+    /**
+     * Compiles the currently registered commands into an
+     * immutable dispatch tree. Sub-commands are looked up
+     * through pre-built switch tables and parsers, validators
+     * and handlers are called directly instead of being
+     * found by walking the maps of the registration tree.
+     *
+     * <p>
+     *
+     * This is optional, until it is called (or after another
+     * handler is registered) commands are interpreted from the
+     * registration tree. Routes that the compiled tree cannot
+     * match fall back to the interpreter so errors are
+     * reported in exactly the same way.
+     *
+     * <p>
+     *
+     * A separate tree is compiled for each class of caller
+     * the first time a caller of that class executes a
+     * command, containing only the commands it can call.
+     */
+    public void compile() {
+        compiledViews = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Looks for overloads of the registered commands that may
+     * match the same command, e.g. a String argument next to a
+     * sub-command, where the winner is only decided by the
+     * precedence rules (sub-commands first, then arguments in
+     * reverse registration order).
+     *
+     * <p>
+     *
+     * Alternatives are disjoint if they need different numbers
+     * of tokens or, for a sub-command, if the argument's parser
+     * hints that it can't parse the sub-command's name (see
+     * {@link uk.co.thinkofdeath.parsing.parsers.ParseHint}).
+     * Arguments are otherwise assumed to overlap. Where all the
+     * alternatives of a node are disjoint the compiled tree
+     * dispatches through it without backtracking.
+     *
+     * <p>
+     *
+     * The ambiguities are returned as warnings, nothing is
+     * thrown
+     *
+     * @return A warning for each pair of alternatives that
+     * may overlap
+     */
+    public List<CommandRegisterException> findAmbiguities() {
+        ArrayList<CommandRegisterException> warnings = new ArrayList<>();
+        findAmbiguities(rootNode, "", warnings);
+        return warnings;
+    }
+
+    private static void findAmbiguities(CommandNode node, String path, List<CommandRegisterException> warnings) {
+        LiteralTable<CommandNode> subCommands = node.subCommands;
+        for (int i = 0; i < subCommands.capacity(); i++) {
+            String literal = subCommands.keyAt(i);
+            if (literal == null) {
+                continue;
+            }
+            for (ArgumentNode argumentNode : node.arguments) {
+                if (argumentNode.overlaps(literal, subCommands.valueAt(i))) {
+                    warnings.add(new CommandRegisterException(
+                            "'" + path + literal + "' may also match the " + argumentNode.describe()
+                                    + " argument of '" + path + "?', the sub-command takes precedence"));
+                }
+            }
+            findAmbiguities(subCommands.valueAt(i), path + literal + " ", warnings);
+        }
+        ArgumentNode[] arguments = node.arguments;
+        for (int i = 0; i < arguments.length; i++) {
+            for (int j = i + 1; j < arguments.length; j++) {
+                if ((arguments[i].routeMask() & arguments[j].routeMask()) != 0) {
+                    warnings.add(new CommandRegisterException(
+                            "The " + arguments[i].describe() + " and " + arguments[j].describe()
+                                    + " arguments of '" + path + "?' may match the same tokens, the "
+                                    + arguments[j].describe() + " argument takes precedence"));
+                }
+            }
+            findAmbiguities(arguments[i].node, path + "? ", warnings);
+        }
+    }
+
+    /**
+     * Sets whether the compiled tree reorders overloaded
+     * arguments by how often each leads to a handler, so the
+     * most used overloads are tried first instead of paying
+     * for the failed attempts of those registered after them.
+     *
+     * <p>
+     *
+     * Reordering changes which handler is called for a command
+     * that matches more than one overload, so this should only
+     * be enabled if overloads don't overlap or any of them is
+     * an acceptable match. Errors are reported from the
+     * registration tree and are unaffected.
+     *
+     * <p>
+     *
+     * Only has an effect on commands dispatched through the
+     * compiled tree, see {@link #compile()}. Disabled by default
+     *
+     * @param adaptiveOrdering
+     *         Whether to adaptively order overloads
+     */
+    public void setAdaptiveOrdering(boolean adaptiveOrdering) {
+        this.adaptiveOrdering = adaptiveOrdering;
+        if (compiledViews != null) {
+            // Recompile with the new setting
+            compiledViews = new ConcurrentHashMap<>();
+        }
+    }
+
+    // Calls the method with the arguments (including the caller)
+    // in the order the method expects them, parameters passed
+    // without boxing are taken from the primitives instead.
+    // Returns the value returned by the method
+    static Object invoke(CommandNode.CommandMethod method, Object[] arguments, long[] primitives) {
+        try {
+            return (Object) method.invoker.invokeExact(arguments, primitives);
+        } catch (RuntimeException | Error e) {
+            // Propagate errors as-is
+            throw e;
+        } catch (Throwable e) {
+            // Checked exceptions thrown by the handler
+            throw new CheckedHandlerException(e);
+        }
+    }
+
+    // Returns the exception thrown by the handler, unwrapping
+    // checked exceptions wrapped by invoke
+    static Throwable handlerCause(RuntimeException e) {
+        return e instanceof CheckedHandlerException ? e.getCause() : e;
+    }
+
+    // Wraps a checked exception thrown by a handler so it can be
+    // told apart from a handler's own RuntimeException
+    private static final class CheckedHandlerException extends RuntimeException {
+        private CheckedHandlerException(Throwable cause) {
+            super(cause);
+        }
+    }
+
     /**
      * Defines a parser for the type class. The parser will be called
      * when the class is encountered as a parameter to a method.
@@ -672,41 +1578,16 @@ public class CommandManager {
         parsers.put(clazz, parser);
     }
 
-    // Split by spaces unless the argument is quoted with `
-    private String[] split(String command) {
-        Matcher matcher = splitter.matcher(command);
-        ArrayList<String> args = new ArrayList<>();
-        while (matcher.find()) {
-            String arg = matcher.group().trim();
-            if (arg.startsWith("`")) {
-                arg = arg.substring(1, arg.length() - 1);
-            }
-            args.add(arg);
-        }
-        args.remove(args.size() - 1);
-        return args.toArray(new String[args.size()]);
+    // Takes the pooled search state if it isn't already in
+    // use (by another thread or a command called from within
+    // a command) otherwise creates a new one
+    private SearchState acquireSearch() {
+        SearchState search = searchPool.getAndSet(null);
+        return search != null ? search : new SearchState();
     }
 
-    // Helper for converting between split arguments and joined arguments
-    // format
-    private String join(String name, String... args) {
-        StringBuilder out = new StringBuilder(name);
-        for (String arg : args) {
-            out.append(' ').append(arg);
-        }
-        return out.toString();
-    }
-
-    private static class CommandState {
-        private CommandNode node;
-        private Object argument;
-        private int offset;
-        private CommandState parent;
-
-        private CommandState(CommandNode node, Object argument, int offset) {
-            this.node = node;
-            this.argument = argument;
-            this.offset = offset;
-        }
+    private void releaseSearch(SearchState search) {
+        search.reset();
+        searchPool.set(search);
     }
 }
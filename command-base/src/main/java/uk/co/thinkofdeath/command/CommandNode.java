@@ -16,42 +16,453 @@
 
 package uk.co.thinkofdeath.command;
 
+import uk.co.thinkofdeath.parsing.parsers.ArgumentParser;
 import uk.co.thinkofdeath.parsing.validators.ArgumentValidator;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class CommandNode {
 
-    final HashMap<String, CommandNode> subCommands = new HashMap<>();
-    final ArrayList<ArgumentNode> arguments = new ArrayList<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+    private static final CallerView[] NO_VIEWS = new CallerView[0];
+    private static final ArgumentNode[] NO_ARGUMENTS = new ArgumentNode[0];
+    private static final CommandMethod[] NO_METHODS = new CommandMethod[0];
+    static final ArgumentValidator[] NO_VALIDATORS = new ArgumentValidator[0];
 
-    final HashMap<Class<?>, CommandMethod> methods = new HashMap<>();
+    // Identifies the node in a search's set of failed states
+    final int id = NEXT_ID.getAndIncrement();
+
+    // Most nodes only have a few children (and leaves have none)
+    // so these are plain arrays shared while empty and copied
+    // when added to
+    final LiteralTable<CommandNode> subCommands = new LiteralTable<>();
+    ArgumentNode[] arguments = NO_ARGUMENTS;
+    // The methods in registration order, at most one for each
+    // caller type
+    CommandMethod[] methodArray = NO_METHODS;
+
+    // The number of tokens that can reach a method from this
+    // node: bit n is set if exactly n tokens can, longRoutes is
+    // set if a route of 64 or more tokens exists and any number
+    // of tokens greater or equal to minVarargs can via varargs
+    private long arities;
+    private boolean longRoutes;
+    private int minVarargs = Integer.MAX_VALUE;
+
+    // The views of this node for the caller classes seen so far.
+    // Replaced as a whole when a class is added so it can be
+    // read without locking, if two threads add a view at the
+    // same time one is lost and simply created again later
+    private volatile CallerView[] views = NO_VIEWS;
 
     CommandNode() {
     }
 
+    void addMethod(CommandMethod method) {
+        methodArray = Arrays.copyOf(methodArray, methodArray.length + 1);
+        methodArray[methodArray.length - 1] = method;
+    }
+
+    /**
+     * Returns the method for callers of exactly the passed type
+     *
+     * @param callerType
+     *         The type of the caller parameter
+     * @return The method or null
+     */
+    CommandMethod getMethod(Class<?> callerType) {
+        for (CommandMethod method : methodArray) {
+            if (method.callerType == callerType) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    void addArgument(ArgumentNode argumentNode) {
+        arguments = Arrays.copyOf(arguments, arguments.length + 1);
+        arguments[arguments.length - 1] = argumentNode;
+    }
+
+    /**
+     * Returns the view of this node for callers of the
+     * passed class, creating it (and the views of every
+     * node below this one) if this is the first time the
+     * class has been seen
+     *
+     * @param callerClass
+     *         The class of the caller
+     * @return The view for the class
+     */
+    CallerView view(Class<?> callerClass) {
+        CallerView[] views = this.views;
+        for (CallerView view : views) {
+            if (view.callerClass == callerClass) {
+                return view;
+            }
+        }
+        CallerView view = createView(callerClass);
+        CallerView[] newViews = Arrays.copyOf(views, views.length + 1);
+        newViews[views.length] = view;
+        this.views = newViews;
+        return view;
+    }
+
+    private CallerView createView(Class<?> callerClass) {
+        ArrayList<CommandMethod> applicable = new ArrayList<>();
+        // The caller validators every reachable method below this
+        // node has, null until the first method is found
+        ArrayList<ArgumentValidator> common = null;
+        for (CommandMethod method : methodArray) {
+            if (method.callerType.isAssignableFrom(callerClass)) {
+                applicable.add(method);
+                common = retain(common, method.argumentValidators);
+            }
+        }
+        for (int i = 0; i < subCommands.capacity(); i++) {
+            if (subCommands.keyAt(i) != null) {
+                CallerView view = subCommands.valueAt(i).view(callerClass);
+                if (view.reachable) {
+                    common = retain(common, view.callerChecks);
+                }
+            }
+        }
+        for (ArgumentNode argumentNode : arguments) {
+            CallerView view = argumentNode.node.view(callerClass);
+            if (view.reachable) {
+                common = retain(common, view.callerChecks);
+            }
+        }
+        return new CallerView(callerClass,
+                applicable.toArray(new CommandMethod[applicable.size()]),
+                common != null,
+                common == null ? NO_VALIDATORS : common.toArray(new ArgumentValidator[common.size()]));
+    }
+
+    // Removes the validators that aren't in others, validators
+    // are compared by identity as the manager shares instances
+    // between methods with equal annotations
+    private static ArrayList<ArgumentValidator> retain(ArrayList<ArgumentValidator> validators,
+                                                       ArgumentValidator[] others) {
+        if (validators == null) {
+            return new ArrayList<>(Arrays.asList(others));
+        }
+        outer:
+        for (int i = validators.size() - 1; i >= 0; i--) {
+            for (ArgumentValidator other : others) {
+                if (validators.get(i) == other) {
+                    continue outer;
+                }
+            }
+            validators.remove(i);
+        }
+        return validators;
+    }
+
+    /**
+     * Drops the views of this node, must be called when a method
+     * is added to this node or any node below it
+     */
+    void clearViews() {
+        views = NO_VIEWS;
+    }
+
+    /**
+     * Returns the argument that parses and validates values in
+     * the same way as the passed parser, validators and types
+     *
+     * @param parser
+     *         The parser of the argument
+     * @param validators
+     *         The validators of the argument
+     * @param varargsType
+     *         The component type if the argument is varargs,
+     *         otherwise null
+     * @param restType
+     *         The type of the argument if it takes the rest of
+     *         the command, otherwise null
+     * @param primitive
+     *         The primitive type the value is passed as, or null
+     * @param optional
+     *         Whether the argument can be left out
+     * @return The equivalent argument or null if there isn't one
+     */
+    ArgumentNode findArgument(ArgumentParser parser, ArgumentValidator[] validators, Class<?> varargsType,
+                              Class<?> restType, PrimitiveType primitive, boolean optional) {
+        for (ArgumentNode argumentNode : arguments) {
+            if (argumentNode.isEquivalent(parser, validators, varargsType, restType, primitive, optional)) {
+                return argumentNode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records that a method can be reached from this node
+     * with the number of tokens
+     *
+     * @param tokens
+     *         The number of tokens the route takes
+     * @param varargs
+     *         Whether the route ends with varargs in which case
+     *         it takes at least the number of tokens
+     */
+    void addArity(int tokens, boolean varargs) {
+        if (varargs) {
+            minVarargs = Math.min(minVarargs, tokens);
+        } else if (tokens < 64) {
+            arities |= 1L << tokens;
+        } else {
+            longRoutes = true;
+        }
+    }
+
+    /**
+     * Returns the numbers of tokens, counting the token that
+     * leads to this node, that can reach a method through it:
+     * bit n is set if exactly n tokens can. Every bit is set if
+     * the number isn't bounded (varargs or long routes) so two
+     * routes can only be told apart by the number of tokens if
+     * their masks don't intersect
+     *
+     * @return The mask of token counts
+     */
+    long routeMask() {
+        if (longRoutes || minVarargs != Integer.MAX_VALUE || arities < 0) {
+            return -1;
+        }
+        return arities << 1;
+    }
+
+    /**
+     * Returns whether a method can be reached from this node
+     * with exactly the number of tokens
+     *
+     * @param tokens
+     *         The number of tokens left
+     * @return Whether a method may be reachable
+     */
+    boolean accepts(int tokens) {
+        if (tokens >= minVarargs) {
+            return true;
+        }
+        return tokens < 64 ? (arities & (1L << tokens)) != 0 : longRoutes;
+    }
+
+    /**
+     * Returns whether a method can be reached from this node
+     * with at least the number of tokens, used when the
+     * command is still being typed
+     *
+     * @param tokens
+     *         The number of tokens left
+     * @return Whether a method may be reachable
+     */
+    boolean acceptsAtLeast(int tokens) {
+        if (minVarargs != Integer.MAX_VALUE || longRoutes) {
+            return true;
+        }
+        return tokens < 64 && (arities >>> tokens) != 0;
+    }
+
+    /**
+     * Returns whether the tokens from the offset onwards could
+     * reach a method from this node. This only looks at the
+     * names of sub-commands and the number of arguments, no
+     * arguments are parsed. Results are remembered by the
+     * search
+     *
+     * @param tokens
+     *         The tokens of the command
+     * @param offset
+     *         The offset of the first token left to match
+     * @param search
+     *         The current search
+     * @return Whether a method could be reached
+     */
+    boolean matches(Tokens tokens, int offset, SearchState search) {
+        if (!accepts(tokens.count() - offset)) {
+            return false;
+        }
+        if (offset == tokens.count() && methodArray.length != 0) {
+            return true;
+        }
+        int flags = search.flags(this, offset);
+        if ((flags & (SearchState.MATCHES | SearchState.NO_MATCH)) != 0) {
+            return (flags & SearchState.MATCHES) != 0;
+        }
+        boolean matches = false;
+        if (offset < tokens.count()) {
+            CommandNode literal = subCommands.get(tokens.source(), tokens.start(offset), tokens.end(offset));
+            if (literal != null && literal.matches(tokens, offset + 1, search)) {
+                matches = true;
+            } else {
+                for (ArgumentNode argumentNode : arguments) {
+                    // Varargs takes the rest of the tokens
+                    int next = argumentNode.greedy ? tokens.count() : offset + 1;
+                    if (argumentNode.node.matches(tokens, next, search)) {
+                        matches = true;
+                        break;
+                    }
+                }
+            }
+        }
+        // Optional arguments can be left out without using
+        // the token
+        for (int i = 0; i < arguments.length && !matches; i++) {
+            if (arguments[i].optional) {
+                matches = arguments[i].node.matches(tokens, offset, search);
+            }
+        }
+        search.addFlags(this, offset, matches ? SearchState.MATCHES : SearchState.NO_MATCH);
+        return matches;
+    }
+
     @Override
     public String toString() {
         return "CommandNode{" +
                 "subCommands=" + subCommands +
-                ", arguments=" + arguments +
-                ", methods=" + methods +
+                ", arities=" + Long.toBinaryString(arities) +
+                ", arguments=" + Arrays.toString(arguments) +
+                ", methods=" + Arrays.toString(methodArray) +
                 '}';
     }
 
+    /**
+     * The parts of a node that matter to callers of a single
+     * class
+     */
+    static final class CallerView {
+        final Class<?> callerClass;
+        // The methods the caller can call, in the same order as
+        // the node's methodArray
+        final CommandMethod[] methods;
+        // Whether the caller can call a method at this node or
+        // any node below it
+        final boolean reachable;
+        // The caller validators shared by every method the caller
+        // can reach through this node. Checked when the node is
+        // entered so routes the caller isn't allowed to use are
+        // dropped before their arguments are parsed
+        final ArgumentValidator[] callerChecks;
+
+        CallerView(Class<?> callerClass, CommandMethod[] methods, boolean reachable,
+                   ArgumentValidator[] callerChecks) {
+            this.callerClass = callerClass;
+            this.methods = methods;
+            this.reachable = reachable;
+            this.callerChecks = callerChecks;
+        }
+    }
+
     static class CommandMethod {
+
+        // The type every invoker is adapted to so that the call
+        // site in the manager can use invokeExact
+        static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class, long[].class);
+
+        private static final MethodHandle OBJECT_GETTER = MethodHandles.arrayElementGetter(Object[].class);
+        private static final MethodHandle PRIMITIVE_GETTER = MethodHandles.arrayElementGetter(long[].class);
+
         final Method method;
         final CommandHandler owner;
         final ArgumentValidator[] argumentValidators;
         final int[] argumentPositions;
+        // The primitive type of each parameter which is passed
+        // without boxing, null for the others
+        final PrimitiveType[] primitives;
+        // The values of optional parameters when they are left
+        // out, primitives by their bits
+        private final Object[] defaults;
+        private final long[] defaultBits;
+        // The method pre-bound to its owner which takes the
+        // arguments (including the caller) as an array and the
+        // unboxed arguments as an array of bits
+        final MethodHandle invoker;
+        // Cached as getParameterTypes() copies the array
+        final Class<?> callerType;
+        // Whether the handler is marked with @ThreadSafe
+        final boolean threadSafe;
 
-        CommandMethod(Method method, CommandHandler owner, ArgumentValidator[] argumentValidators, int[] argumentPositions) {
+        CommandMethod(Method method, CommandHandler owner, ArgumentValidator[] argumentValidators,
+                      int[] argumentPositions, PrimitiveType[] primitives, Object[] defaults, long[] defaultBits) {
             this.method = method;
             this.owner = owner;
             this.argumentValidators = argumentValidators;
             this.argumentPositions = argumentPositions;
+            this.primitives = primitives;
+            this.defaults = defaults;
+            this.defaultBits = defaultBits;
+            this.invoker = createInvoker(method, owner, primitives);
+            this.callerType = method.getParameterTypes()[0];
+            this.threadSafe = method.isAnnotationPresent(ThreadSafe.class);
+        }
+
+        /**
+         * Places the default value of the parameter at the
+         * position into the argument arrays
+         *
+         * @param position
+         *         The position of the parameter
+         * @param arguments
+         *         The arguments of the handler
+         * @param primitives
+         *         The primitive arguments of the handler
+         */
+        void fillDefault(int position, Object[] arguments, long[] primitives) {
+            if (this.primitives[position] != null) {
+                primitives[position] = defaultBits[position];
+            } else {
+                arguments[position] = defaults[position];
+            }
+        }
+
+        private static MethodHandle createInvoker(Method method, CommandHandler owner, PrimitiveType[] primitives) {
+            MethodHandle handle;
+            try {
+                // The method has already been made accessible so
+                // the lookup will not reject private methods
+                handle = MethodHandles.lookup().unreflect(method);
+            } catch (IllegalAccessException e) {
+                throw new CommandRegisterException("Unable to access " + method);
+            }
+            if (!Modifier.isStatic(method.getModifiers())) {
+                handle = handle.bindTo(owner);
+            }
+            // Varargs are already collected into an array by the
+            // manager so the handle shouldn't try to collect them
+            // again
+            handle = handle.asFixedArity();
+
+            // Each parameter is read from one of the two arrays,
+            // primitives are converted back from their bits so
+            // they are never boxed
+            Class<?>[] parameters = method.getParameterTypes();
+            MethodHandle[] getters = new MethodHandle[parameters.length];
+            int[] reorder = new int[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                if (primitives[i] != null) {
+                    getters[i] = MethodHandles.filterReturnValue(
+                            MethodHandles.insertArguments(PRIMITIVE_GETTER, 1, i),
+                            primitives[i].unpacker);
+                    reorder[i] = 1;
+                } else {
+                    getters[i] = MethodHandles.insertArguments(OBJECT_GETTER, 1, i)
+                            .asType(MethodType.methodType(parameters[i], Object[].class));
+                }
+            }
+            handle = MethodHandles.filterArguments(handle, 0, getters);
+            handle = MethodHandles.permuteArguments(handle,
+                    MethodType.methodType(handle.type().returnType(), Object[].class, long[].class),
+                    reorder);
+            return handle.asType(INVOKER_TYPE);
         }
     }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.command;
+
+/**
+ * The outcome of trying to execute a command
+ *
+ * @see uk.co.thinkofdeath.command.CommandManager#tryExecute(Object, String)
+ */
+public final class CommandResult {
+
+    /**
+     * The kinds of outcome of executing a command
+     */
+    public enum Status {
+        /**
+         * A handler was found and called
+         */
+        SUCCESS,
+        /**
+         * No command matches what was entered
+         */
+        NOT_FOUND,
+        /**
+         * A command matched but can't be called by the caller,
+         * either because of its type or because a validator on
+         * the caller rejected it
+         */
+        INCORRECT_CALLER,
+        /**
+         * An argument failed to parse or validate
+         */
+        INVALID,
+        /**
+         * The search for a matching command was abandoned
+         * after exploring too many possibilities
+         *
+         * @see uk.co.thinkofdeath.command.CommandManager#setSearchLimit(int)
+         */
+        TOO_COMPLEX,
+        /**
+         * The handler threw an exception, only reported by
+         * batches which don't stop at the first exception
+         *
+         * @see uk.co.thinkofdeath.command.CommandManager#executeBatch(java.util.List, java.util.List)
+         */
+        EXCEPTION
+    }
+
+    static final CommandResult SUCCESS = new CommandResult(Status.SUCCESS, null);
+
+    private final Status status;
+    private final CommandError error;
+    private final Throwable exception;
+
+    private CommandResult(Status status, CommandError error) {
+        this(status, error, null);
+    }
+
+    private CommandResult(Status status, CommandError error, Throwable exception) {
+        this.status = status;
+        this.error = error;
+        this.exception = exception;
+    }
+
+    static CommandResult exception(Throwable exception) {
+        return new CommandResult(Status.EXCEPTION, new CommandError(1, "command.exception"), exception);
+    }
+
+    static CommandResult failure(Status status, CommandError error) {
+        return new CommandResult(status, error);
+    }
+
+    /**
+     * Returns the kind of outcome
+     *
+     * @return The status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns whether a handler was called
+     *
+     * @return Whether the command succeeded
+     */
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+
+    /**
+     * Returns the error describing why the command failed
+     *
+     * @return The error or null if the command succeeded
+     */
+    public CommandError getError() {
+        return error;
+    }
+
+    /**
+     * Returns the exception thrown by the handler
+     *
+     * @return The exception or null if the handler didn't
+     * throw one
+     */
+    public Throwable getException() {
+        return exception;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandResult{" +
+                "status=" + status +
+                ", error=" + (error == null ? null : error.getKey()) +
+                '}';
+    }
+}
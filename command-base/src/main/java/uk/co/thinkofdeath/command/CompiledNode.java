@@ -0,0 +1,594 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.command;
+
+import uk.co.thinkofdeath.parsing.ParserException;
+import uk.co.thinkofdeath.parsing.parsers.ArgumentParser;
+import uk.co.thinkofdeath.parsing.parsers.ParseHint;
+import uk.co.thinkofdeath.parsing.validators.ArgumentValidator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * An immutable, compiled form of a {@link CommandNode}.
+ *
+ * <p>
+ *
+ * Sub-commands are compiled into a hash table matched
+ * against the command's tokens in place, and the parsers,
+ * validators and handlers are held in plain arrays
+ * so dispatching is a series of direct calls instead of
+ * map lookups and list iteration. A tree is compiled for a
+ * single class of caller and only contains the routes and
+ * handlers that class can call.
+ *
+ * <p>
+ *
+ * Chains of sub-commands with nothing else along them (e.g.
+ * {@code hello world test}) are collapsed into a single node
+ * which matches the rest of the chain directly against the
+ * tokens, literal tables are compacted so a lookup checks a
+ * single slot where possible, and nodes without children
+ * share empty tables and arrays.
+ *
+ * <p>
+ *
+ * With adaptive ordering the arguments of a node count how
+ * often each leads to a handler, striped by thread so calls
+ * on different threads rarely touch the same counter, and
+ * the node periodically reorders them so the most successful
+ * (and then the cheapest) are tried first.
+ *
+ * <p>
+ *
+ * Where the alternatives of a node are provably disjoint
+ * (see {@link CommandManager#findAmbiguities()}) the node
+ * doesn't backtrack: a sub-command that matches the token
+ * excludes the arguments, and arguments that each need a
+ * different number of tokens are picked from a decision
+ * table indexed by the number of tokens left.
+ *
+ * <p>
+ *
+ * The compiled tree only looks for a handler to call, it
+ * doesn't record why a route failed. When it fails the
+ * {@link CommandManager} falls back to interpreting the
+ * {@link CommandNode} tree which reports the error. Both
+ * share the search's {@link ParseMemo} so the fallback
+ * doesn't parse any token a second time.
+ */
+final class CompiledNode {
+
+    private static final Argument[] NO_ARGUMENTS = new Argument[0];
+    private static final CommandNode.CommandMethod[] NO_METHODS = new CommandNode.CommandMethod[0];
+    private static final LiteralTable<CompiledNode> NO_LITERALS = new LiteralTable<>();
+    private static final String[] NO_CHAIN = new String[0];
+
+    // Must be powers of two
+    private static final int STRIPES = 8;
+    private static final int REORDER_INTERVAL = 256;
+    // Keeps each stripe's counters on separate cache lines
+    private static final int PADDING = 16;
+
+    // The sub-commands that have to follow the token that
+    // reached this node, in order, when a chain of nodes was
+    // collapsed into this one
+    private final String[] chain;
+    // The node this was compiled from (the last of the chain),
+    // used for the structural matching shared with the
+    // interpreter
+    private final CommandNode source;
+    private final LiteralTable<CompiledNode> literals;
+    // In precedence order, the order the interpreter tries them
+    private final Argument[] arguments;
+    // The order the arguments are tried in, the same as
+    // arguments unless adaptive ordering changed it
+    private volatile Argument[] order;
+    // The number of times each argument led to a handler, one
+    // stripe of counters per group of threads. Null unless
+    // the arguments are adaptively ordered
+    private final AtomicIntegerArray successes;
+    private final int stride;
+    // The only argument that could match for each number of
+    // tokens left, null if the arguments aren't disjoint or one
+    // takes any number of tokens
+    private final Argument[] byArity;
+    // Whether no argument can match a token matching one of
+    // the sub-commands
+    private final boolean literalsExclusive;
+    // The numbers of tokens, counting the one that reached this
+    // node, that can reach a method through it. See
+    // CommandNode#routeMask()
+    private final long routeMask;
+    private final CommandNode.CommandMethod[] methods;
+    // The caller validators checked when this node is entered,
+    // those already checked by a parent are left out
+    private final ArgumentValidator[] callerChecks;
+    // The largest number of values (including the caller)
+    // any route through this node collects
+    final int depth;
+
+    private CompiledNode(String[] chain, CommandNode source, LiteralTable<CompiledNode> literals,
+                         Argument[] arguments, CommandNode.CommandMethod[] methods,
+                         ArgumentValidator[] callerChecks, int depth, Argument[] byArity,
+                         boolean literalsExclusive, long routeMask, boolean adaptive) {
+        this.chain = chain;
+        this.source = source;
+        this.literals = literals;
+        this.arguments = arguments;
+        order = arguments;
+        this.byArity = byArity;
+        this.literalsExclusive = literalsExclusive;
+        this.routeMask = routeMask;
+        // Nothing to reorder when the table picks the argument
+        if (adaptive && byArity == null && arguments.length > 1) {
+            stride = (arguments.length + PADDING - 1) & -PADDING;
+            successes = new AtomicIntegerArray(STRIPES * stride);
+        } else {
+            stride = 0;
+            successes = null;
+        }
+        this.methods = methods;
+        this.callerChecks = callerChecks;
+        this.depth = depth;
+    }
+
+    /**
+     * Compiles the node and all of its children that callers
+     * of the class can reach a method through
+     *
+     * @param node
+     *         The node to compile
+     * @param callerClass
+     *         The class of the callers the tree is for
+     * @param adaptive
+     *         Whether to reorder arguments by how often they
+     *         succeed
+     * @return The compiled node
+     */
+    static CompiledNode compile(CommandNode node, Class<?> callerClass, boolean adaptive) {
+        // The root is always entered at the first token so
+        // can't start a chain
+        return compile(node, callerClass, CommandNode.NO_VALIDATORS, false, adaptive);
+    }
+
+    private static CompiledNode compile(CommandNode node, Class<?> callerClass, ArgumentValidator[] checked,
+                                        boolean collapse, boolean adaptive) {
+        // Taken before collapsing, the numbers of tokens the
+        // ambiguity checks compared against the node's siblings
+        long routeMask = node.routeMask();
+        // Collapse nodes with a single way forward, a sub-command,
+        // into one
+        ArrayList<String> chain = new ArrayList<>();
+        CommandNode.CallerView view = node.view(callerClass);
+        while (collapse && view.methods.length == 0) {
+            String onlyKey = null;
+            CommandNode only = null;
+            int routes = 0;
+            LiteralTable<CommandNode> subCommands = node.subCommands;
+            for (int i = 0; i < subCommands.capacity() && routes < 2; i++) {
+                if (subCommands.keyAt(i) != null && subCommands.valueAt(i).view(callerClass).reachable) {
+                    onlyKey = subCommands.keyAt(i);
+                    only = subCommands.valueAt(i);
+                    routes++;
+                }
+            }
+            for (int i = 0; i < node.arguments.length && routes < 2; i++) {
+                if (node.arguments[i].node.view(callerClass).reachable) {
+                    routes = 2;
+                }
+            }
+            if (routes != 1) {
+                break;
+            }
+            chain.add(onlyKey);
+            node = only;
+            view = node.view(callerClass);
+        }
+
+        ArrayList<ArgumentValidator> callerChecks = new ArrayList<>();
+        validators:
+        for (ArgumentValidator validator : view.callerChecks) {
+            for (ArgumentValidator other : checked) {
+                if (validator == other) {
+                    continue validators;
+                }
+            }
+            callerChecks.add(validator);
+        }
+
+        int depth = 1;
+
+        // Later registrations take precedence
+        ArrayList<Argument> arguments = new ArrayList<>();
+        // The token counts of the arguments' routes, if none
+        // intersect at most one argument can match any command
+        long seen = 0;
+        boolean disjoint = true;
+        for (int i = node.arguments.length - 1; i >= 0; i--) {
+            ArgumentNode argumentNode = node.arguments[i];
+            if (argumentNode.node.view(callerClass).reachable) {
+                Argument argument = new Argument(argumentNode, arguments.size(),
+                        compile(argumentNode.node, callerClass, view.callerChecks, true, adaptive));
+                arguments.add(argument);
+                depth = Math.max(depth, argument.node.depth + 1);
+                long mask = argumentNode.routeMask();
+                // An unbounded argument can take more tokens than
+                // the table covers, as it overlaps every other
+                // argument it would be the only one anyway
+                disjoint &= (seen & mask) == 0 && mask != -1;
+                seen |= mask;
+            }
+        }
+        Argument[] byArity = null;
+        if (disjoint && !arguments.isEmpty()) {
+            byArity = new Argument[64 - Long.numberOfLeadingZeros(seen)];
+            for (Argument argument : arguments) {
+                long mask = argument.source.routeMask();
+                for (int tokens = 0; tokens < byArity.length; tokens++) {
+                    if ((mask & (1L << tokens)) != 0) {
+                        byArity[tokens] = argument;
+                    }
+                }
+            }
+        }
+
+        LiteralTable<CompiledNode> literals = new LiteralTable<>();
+        LiteralTable<CommandNode> subCommands = node.subCommands;
+        boolean literalsExclusive = true;
+        for (int i = 0; i < subCommands.capacity(); i++) {
+            CommandNode subCommand = subCommands.valueAt(i);
+            if (subCommands.keyAt(i) != null && subCommand.view(callerClass).reachable) {
+                CompiledNode literalNode = compile(subCommand, callerClass, view.callerChecks, true, adaptive);
+                literals.put(subCommands.keyAt(i), literalNode);
+                depth = Math.max(depth, literalNode.depth);
+                for (Argument argument : arguments) {
+                    literalsExclusive &= !argument.source.overlaps(subCommands.keyAt(i), subCommand);
+                }
+            }
+        }
+
+        // Only the methods the caller can call, in the iteration
+        // order of the interpreter so that both pick the same
+        // method
+        CommandNode.CommandMethod[] methods = view.methods;
+        return new CompiledNode(
+                chain.isEmpty() ? NO_CHAIN : chain.toArray(new String[chain.size()]),
+                node,
+                literals.isEmpty() ? NO_LITERALS : literals.compact(),
+                arguments.isEmpty() ? NO_ARGUMENTS : arguments.toArray(new Argument[arguments.size()]),
+                methods.length == 0 ? NO_METHODS : methods,
+                callerChecks.isEmpty()
+                        ? CommandNode.NO_VALIDATORS
+                        : callerChecks.toArray(new ArgumentValidator[callerChecks.size()]),
+                depth, byArity, literalsExclusive, routeMask, adaptive);
+    }
+
+    /**
+     * Attempts to find and call a handler for the arguments
+     * starting at offset. Routes are tried in the same order
+     * as the interpreter: sub-commands first and then the
+     * arguments in reverse registration order (unless
+     * adaptively reordered).
+     *
+     * @param caller
+     *         The caller of the command
+     * @param tokens
+     *         The tokens of the command
+     * @param offset
+     *         The current token
+     * @param search
+     *         The search state whose path holds the values
+     *         collected on the route so far, the caller is
+     *         always the first
+     * @param count
+     *         The number of values collected so far
+     * @return Whether a handler was called
+     */
+    boolean dispatch(Object caller, Tokens tokens, int offset, SearchState search, int count) {
+        // Leave it to the interpreter to report the search
+        // as too complex
+        if (!search.explore()) {
+            return false;
+        }
+        if (offset == tokens.count()) {
+            return call(caller, search, count) || skipOptional(caller, tokens, offset, search, count);
+        }
+
+        CompiledNode literal = literals.get(tokens.source(), tokens.start(offset), tokens.end(offset));
+        if (literal != null) {
+            int next = literal.skipChain(tokens, offset + 1);
+            if (next != -1 && literal.source.matches(tokens, next, search)
+                    && search.checkCaller(literal.callerChecks, caller) == null
+                    && literal.dispatch(caller, tokens, next, search, count)) {
+                return true;
+            }
+            // The arguments can't take a number of tokens the
+            // literal could, only when the literal couldn't take
+            // these can an argument match
+            if (literalsExclusive && literal.takes(tokens.count() - offset)) {
+                return false;
+            }
+        }
+
+        if (byArity != null) {
+            int left = tokens.count() - offset;
+            Argument argument = left < byArity.length ? byArity[left] : null;
+            return argument != null && (dispatch(argument, caller, tokens, offset, search, count)
+                    || argument.source.optional && skip(argument, caller, tokens, offset, search, count));
+        }
+        for (Argument argument : order) {
+            if (dispatch(argument, caller, tokens, offset, search, count)) {
+                if (successes != null) {
+                    recordSuccess(argument);
+                }
+                return true;
+            }
+        }
+        return skipOptional(caller, tokens, offset, search, count);
+    }
+
+    // Tries leaving out each optional argument, after every route
+    // that uses the token as the interpreter does
+    private boolean skipOptional(Object caller, Tokens tokens, int offset, SearchState search, int count) {
+        for (Argument argument : arguments) {
+            if (argument.source.optional && skip(argument, caller, tokens, offset, search, count)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Tries to find a handler through the node after the optional
+    // argument without using a token, the argument takes its
+    // default value
+    private boolean skip(Argument argument, Object caller, Tokens tokens, int offset, SearchState search,
+                         int count) {
+        int next = argument.node.skipChain(tokens, offset);
+        if (next == -1 || !argument.node.source.matches(tokens, next, search)
+                || search.checkCaller(argument.node.callerChecks, caller) != null) {
+            return false;
+        }
+        search.path[count] = ArgumentNode.SKIPPED;
+        return argument.node.dispatch(caller, tokens, next, search, count + 1);
+    }
+
+    // Tries to find a handler through the argument
+    private boolean dispatch(Argument argument, Object caller, Tokens tokens, int offset, SearchState search,
+                             int count) {
+        int next = argument.node.skipChain(tokens,
+                argument.source.greedy ? tokens.count() : offset + 1);
+        // Only parse arguments on routes that could reach
+        // a method the caller is allowed to call
+        if (next == -1 || !argument.node.source.matches(tokens, next, search)
+                || search.checkCaller(argument.node.callerChecks, caller) != null) {
+            return false;
+        }
+        // Skip parsers that can't parse the token going by
+        // their hints, and only pay for a parser that is more
+        // than cheap if the next token could be accepted
+        if (!argument.source.canParse(tokens, offset)
+                || (argument.source.cost > ParseHint.CHEAP && !argument.node.accepts(tokens, next))) {
+            return false;
+        }
+        if (argument.primitive != null && argument.varargsType == null) {
+            if (!argument.parsePrimitive(search, tokens, offset, count)) {
+                return false;
+            }
+            search.path[count] = null;
+        } else {
+            Object out = argument.source.restType != null
+                    ? argument.rest(tokens, offset)
+                    : argument.varargsType != null
+                    ? argument.parseVarargs(search.parses, tokens, offset)
+                    : argument.parse(search.parses, tokens, offset);
+            if (out == null) {
+                return false;
+            }
+            search.path[count] = out;
+        }
+        return argument.node.dispatch(caller, tokens, next, search, count + 1);
+    }
+
+    private void recordSuccess(Argument argument) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        if ((successes.incrementAndGet(stripe * stride + argument.index) & (REORDER_INTERVAL - 1)) == 0) {
+            reorder();
+        }
+    }
+
+    // Sorts the arguments by the number of times they have
+    // succeeded and then by cost, keeping the precedence order
+    // for ties. Counts are halved afterwards so the order
+    // follows recent use. Racing threads may count a few
+    // successes twice or not at all which only affects the order
+    private void reorder() {
+        final int[] totals = new int[arguments.length];
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            for (int i = 0; i < arguments.length; i++) {
+                int slot = stripe * stride + i;
+                int count = successes.get(slot);
+                totals[i] += count;
+                successes.addAndGet(slot, -(count >>> 1));
+            }
+        }
+        Argument[] sorted = arguments.clone();
+        // Stable so ties keep the precedence order
+        Arrays.sort(sorted, new Comparator<Argument>() {
+            @Override
+            public int compare(Argument o1, Argument o2) {
+                if (totals[o1.index] != totals[o2.index]) {
+                    return totals[o1.index] > totals[o2.index] ? -1 : 1;
+                }
+                return Integer.compare(o1.source.cost, o2.source.cost);
+            }
+        });
+        order = sorted;
+    }
+
+    // Returns false if no route from this node could accept the
+    // token at the offset going by the sub-commands and the
+    // parsers' hints. The sub-commands' chains aren't checked
+    private boolean accepts(Tokens tokens, int offset) {
+        if (offset == tokens.count()
+                || literals.get(tokens.source(), tokens.start(offset), tokens.end(offset)) != null) {
+            return true;
+        }
+        for (Argument argument : arguments) {
+            if (argument.source.optional || argument.source.canParse(tokens, offset)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns whether a route through this node could take the
+    // number of tokens, counting the one that reached it
+    private boolean takes(int tokens) {
+        return routeMask == -1 || (tokens < 64 && (routeMask & (1L << tokens)) != 0);
+    }
+
+    // Returns the offset after the chain of sub-commands leading
+    // to this node or -1 if the tokens from the offset don't
+    // match it
+    private int skipChain(Tokens tokens, int offset) {
+        for (String literal : chain) {
+            if (offset == tokens.count()) {
+                return -1;
+            }
+            int length = tokens.end(offset) - tokens.start(offset);
+            if (literal.length() != length
+                    || !literal.regionMatches(true, 0, tokens.source(), tokens.start(offset), length)) {
+                return -1;
+            }
+            offset++;
+        }
+        return offset;
+    }
+
+    private boolean call(Object caller, SearchState search, int count) {
+        for (CommandNode.CommandMethod method : methods) {
+            if (search.checkCaller(method.argumentValidators, caller) != null) {
+                continue;
+            }
+
+            Object[] processedArguments = search.frame(count);
+            long[] primitiveArguments = search.primitiveFrame(count);
+            for (int j = 0; j < count; j++) {
+                int position = method.argumentPositions[j];
+                if (search.path[j] == ArgumentNode.SKIPPED) {
+                    method.fillDefault(position, processedArguments, primitiveArguments);
+                } else if (method.primitives[position] != null) {
+                    primitiveArguments[position] = search.primitivePath[j];
+                } else {
+                    processedArguments[position] = search.path[j];
+                }
+            }
+            try {
+                search.call(method, processedArguments, primitiveArguments);
+            } finally {
+                search.clearFrame(processedArguments);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static final class Argument {
+        private final ArgumentNode source;
+        private final ArgumentParser parser;
+        private final ArgumentValidator[] validators;
+        private final Class<?> varargsType;
+        private final PrimitiveType primitive;
+        private final CompiledNode node;
+
+        // The position of the argument in precedence order
+        private final int index;
+
+        private Argument(ArgumentNode argumentNode, int index, CompiledNode node) {
+            source = argumentNode;
+            this.index = index;
+            parser = argumentNode.parser;
+            validators = argumentNode.type;
+            varargsType = argumentNode.varargsType;
+            primitive = argumentNode.primitive;
+            this.node = node;
+        }
+
+        // Stores the bits of the value in the search's primitive
+        // path, returns false if the argument failed to parse
+        // or validate
+        private boolean parsePrimitive(SearchState search, Tokens tokens, int offset, int count) {
+            try {
+                long bits = search.parses.parse(parser, primitive, tokens, offset);
+                for (ArgumentValidator validator : validators) {
+                    primitive.validate(validator, tokens.get(offset), bits);
+                }
+                search.primitivePath[count] = bits;
+                return true;
+            } catch (ParserException e) {
+                return false;
+            }
+        }
+
+        // Returns null if the argument failed to parse or
+        // validate
+        @SuppressWarnings("unchecked")
+        private Object parse(ParseMemo parses, Tokens tokens, int offset) {
+            try {
+                Object out = parses.parse(parser, tokens, offset);
+                if (out == null) {
+                    return null;
+                }
+                for (ArgumentValidator validator : validators) {
+                    validator.validate(tokens.get(offset), out);
+                }
+                return out;
+            } catch (ParserException e) {
+                return null;
+            }
+        }
+
+        // Returns null if the rest of the command failed to
+        // validate
+        @SuppressWarnings("unchecked")
+        private Object rest(Tokens tokens, int offset) {
+            Object rest = source.restType == String.class ? tokens.rest(offset) : tokens.restView(offset);
+            try {
+                for (ArgumentValidator validator : validators) {
+                    validator.validate(rest.toString(), rest);
+                }
+            } catch (ParserException e) {
+                return null;
+            }
+            return rest;
+        }
+
+        // Returns null if any of the tokens failed to parse
+        // or validate
+        private Object parseVarargs(ParseMemo parses, Tokens tokens, int offset) {
+            try {
+                return source.parseVarargs(parses, tokens, offset);
+            } catch (ParserException e) {
+                return null;
+            }
+        }
+    }
+}
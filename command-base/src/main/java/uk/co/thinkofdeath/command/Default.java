@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.command;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an argument of a command as optional with a default
+ * value used when it is left out. The value is parsed (and
+ * validated) once when the command is registered, by the
+ * argument's parser.
+ *
+ * <pre>
+ * {@literal @}Command("give ? ?")
+ * public void give(Player sender, Material item, {@literal @}Default("1") int amount)
+ * </pre>
+ *
+ * @see uk.co.thinkofdeath.command.Optional
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Default {
+    /**
+     * The value to parse as the default
+     *
+     * @return The default value
+     */
+    String value();
+}
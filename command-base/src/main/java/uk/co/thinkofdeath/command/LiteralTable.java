@@ -0,0 +1,254 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.command;
+
+/**
+ * A case-insensitive map from sub-command names to values.
+ *
+ * <p>
+ *
+ * Unlike a {@link java.util.HashMap} this can be queried with
+ * a region of a larger string (e.g. a token of the command
+ * being executed) without copying or lower-casing it first.
+ * Entries are stored in open addressed arrays which can be
+ * walked by slot with {@link #capacity()}, {@link #keyAt(int)}
+ * and {@link #valueAt(int)}.
+ *
+ * <p>
+ *
+ * No arrays are allocated until the first entry is added.
+ * A table that won't change can be replaced with a
+ * {@link #compact()} copy whose lookups only ever look at
+ * a single slot.
+ *
+ * @param <V>
+ *         The type of the values
+ */
+final class LiteralTable<V> {
+
+    private static final String[] NO_KEYS = new String[0];
+    private static final int[] NO_HASHES = new int[0];
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private String[] keys = NO_KEYS;
+    private int[] hashes = NO_HASHES;
+    private Object[] values = NO_VALUES;
+    private int size;
+    // Set when every key is in the slot it hashes to so a
+    // lookup only needs to check that slot
+    private boolean perfect;
+
+    /**
+     * Returns the value for the key ignoring case
+     *
+     * @param key
+     *         The key to look up
+     * @return The value or null
+     */
+    V get(String key) {
+        return get(key, 0, key.length());
+    }
+
+    /**
+     * Returns the value for the region of the source ignoring
+     * case
+     *
+     * @param source
+     *         The string containing the key
+     * @param start
+     *         The start of the key (inclusive)
+     * @param end
+     *         The end of the key (exclusive)
+     * @return The value or null
+     */
+    @SuppressWarnings("unchecked")
+    V get(String source, int start, int end) {
+        if (size == 0) {
+            return null;
+        }
+        int hash = hash(source, start, end);
+        int length = end - start;
+        int mask = keys.length - 1;
+        for (int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            String key = keys[slot];
+            if (hashes[slot] == hash && key.length() == length
+                    && key.regionMatches(true, 0, source, start, length)) {
+                return (V) values[slot];
+            }
+            if (perfect) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds or replaces the value for the key. Keys are
+     * compared ignoring case but stored as passed
+     *
+     * @param key
+     *         The key
+     * @param value
+     *         The value
+     */
+    void put(String key, V value) {
+        if ((size + 1) << 1 > keys.length) {
+            resize(Math.max(4, keys.length << 1));
+        }
+        perfect = false;
+        int hash = hash(key, 0, key.length());
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        for (; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && keys[slot].equalsIgnoreCase(key)) {
+                values[slot] = value;
+                return;
+            }
+        }
+        keys[slot] = key;
+        hashes[slot] = hash;
+        values[slot] = value;
+        size++;
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) {
+                continue;
+            }
+            int slot = oldHashes[i] & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            hashes[slot] = oldHashes[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * Returns a copy of this table in the smallest capacity
+     * where no two keys share a slot (up to a limit, after which
+     * the smallest capacity that fits is used). Adding to the
+     * copy is allowed but loses the single slot lookups
+     *
+     * @return The compacted copy
+     */
+    LiteralTable<V> compact() {
+        LiteralTable<V> table = new LiteralTable<>();
+        if (size == 0) {
+            return table;
+        }
+        int minCapacity = Integer.highestOneBit(size) << 1;
+        int capacity = minCapacity;
+        for (; capacity <= minCapacity << 3; capacity <<= 1) {
+            if (isPerfect(capacity)) {
+                break;
+            }
+        }
+        boolean perfect = capacity <= minCapacity << 3;
+        if (!perfect) {
+            capacity = minCapacity;
+        }
+        table.keys = keys;
+        table.hashes = hashes;
+        table.values = values;
+        table.size = size;
+        table.resize(capacity);
+        table.perfect = perfect;
+        return table;
+    }
+
+    // Whether every key is in a different slot in a table of
+    // the capacity
+    private boolean isPerfect(int capacity) {
+        boolean[] used = new boolean[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) {
+                continue;
+            }
+            int slot = hashes[i] & mask;
+            if (used[slot]) {
+                return false;
+            }
+            used[slot] = true;
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The number of slots in the table. Slots without an
+     * entry have a null key
+     *
+     * @return The number of slots
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    String keyAt(int slot) {
+        return keys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    // A hash that is the same for any two strings that
+    // String.regionMatches treats as equal when ignoring case
+    private static int hash(String source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(source.charAt(i)));
+        }
+        // Spread the higher bits down as the table is indexed
+        // by the lower bits
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) {
+                continue;
+            }
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(keys[i]).append('=').append(values[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.command;
+
+import uk.co.thinkofdeath.parsing.ParserException;
+import uk.co.thinkofdeath.parsing.parsers.ArgumentParser;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the result of parsing a token with a parser for
+ * the rest of a search.
+ *
+ * <p>
+ *
+ * Overloaded commands often reach the same token through
+ * several routes (or have several arguments at the same
+ * position using the same parser). With the memo each parser
+ * runs at most once per token no matter how many routes try
+ * it. Both the parsed value and the
+ * {@link uk.co.thinkofdeath.parsing.ParserException} are
+ * remembered, primitive values are remembered without
+ * boxing them.
+ */
+final class ParseMemo {
+
+    private ArgumentParser[] parsers = new ArgumentParser[16];
+    private int[] indexes = new int[16];
+    // The primitive type the parser was called for or null if
+    // the boxed value was requested
+    private PrimitiveType[] primitives = new PrimitiveType[16];
+    private Object[] results = new Object[16];
+    private long[] bits = new long[16];
+    private boolean[] failed = new boolean[16];
+    private int size;
+
+    /**
+     * Parses the token at the index with the parser or returns
+     * the result of doing so earlier in the search
+     *
+     * @param parser
+     *         The parser to use
+     * @param tokens
+     *         The tokens of the command
+     * @param index
+     *         The index of the token to parse
+     * @return The parsed value, may be null if the parser
+     * returned null
+     * @throws ParserException
+     *         If the parser failed, now or earlier in the search
+     */
+    Object parse(ArgumentParser parser, Tokens tokens, int index) throws ParserException {
+        int slot = find(parser, null, index);
+        if (parsers[slot] == null) {
+            Object result;
+            boolean failure;
+            try {
+                result = parser.parse(tokens.get(index));
+                failure = false;
+            } catch (ParserException e) {
+                result = e;
+                failure = true;
+            }
+            slot = insert(slot, parser, null, index, result, 0, failure);
+        }
+        if (failed[slot]) {
+            throw (ParserException) results[slot];
+        }
+        return results[slot];
+    }
+
+    /**
+     * Parses the token at the index as a primitive without boxing
+     * it or returns the result of doing so earlier in the search
+     *
+     * @param parser
+     *         The parser to use
+     * @param primitive
+     *         The type to parse the token as
+     * @param tokens
+     *         The tokens of the command
+     * @param index
+     *         The index of the token to parse
+     * @return The bits of the parsed value
+     * @throws ParserException
+     *         If the parser failed, now or earlier in the search
+     * @see PrimitiveType#parse(ArgumentParser, String)
+     */
+    long parse(ArgumentParser parser, PrimitiveType primitive, Tokens tokens, int index) throws ParserException {
+        int slot = find(parser, primitive, index);
+        if (parsers[slot] == null) {
+            long result = 0;
+            ParserException failure = null;
+            try {
+                result = primitive.parse(parser, tokens.get(index));
+            } catch (ParserException e) {
+                failure = e;
+            }
+            slot = insert(slot, parser, primitive, index, failure, result, failure != null);
+        }
+        if (failed[slot]) {
+            throw (ParserException) results[slot];
+        }
+        return bits[slot];
+    }
+
+    // Finds the slot holding the result or the empty slot it
+    // should be placed in
+    private int find(ArgumentParser parser, PrimitiveType primitive, int index) {
+        int mask = parsers.length - 1;
+        int slot = hash(parser, index) & mask;
+        for (; parsers[slot] != null; slot = (slot + 1) & mask) {
+            if (parsers[slot] == parser && indexes[slot] == index && primitives[slot] == primitive) {
+                break;
+            }
+        }
+        return slot;
+    }
+
+    private int insert(int slot, ArgumentParser parser, PrimitiveType primitive, int index,
+                       Object result, long resultBits, boolean failure) {
+        if ((size + 1) << 1 > parsers.length) {
+            resize(parsers.length << 1);
+            slot = find(parser, primitive, index);
+        }
+        parsers[slot] = parser;
+        indexes[slot] = index;
+        primitives[slot] = primitive;
+        results[slot] = result;
+        bits[slot] = resultBits;
+        failed[slot] = failure;
+        size++;
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        ArgumentParser[] oldParsers = parsers;
+        int[] oldIndexes = indexes;
+        PrimitiveType[] oldPrimitives = primitives;
+        Object[] oldResults = results;
+        long[] oldBits = bits;
+        boolean[] oldFailed = failed;
+        parsers = new ArgumentParser[capacity];
+        indexes = new int[capacity];
+        primitives = new PrimitiveType[capacity];
+        results = new Object[capacity];
+        bits = new long[capacity];
+        failed = new boolean[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldParsers.length; i++) {
+            if (oldParsers[i] == null) {
+                continue;
+            }
+            int slot = hash(oldParsers[i], oldIndexes[i]) & mask;
+            while (parsers[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            parsers[slot] = oldParsers[i];
+            indexes[slot] = oldIndexes[i];
+            primitives[slot] = oldPrimitives[i];
+            results[slot] = oldResults[i];
+            bits[slot] = oldBits[i];
+            failed[slot] = oldFailed[i];
+        }
+    }
+
+    private static int hash(ArgumentParser parser, int index) {
+        int hash = System.identityHashCode(parser) * 31 + index;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Forgets all results
+     */
+    void reset() {
+        if (size != 0) {
+            Arrays.fill(parsers, null);
+            Arrays.fill(primitives, null);
+            Arrays.fill(results, null);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,630 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.command;
+
+import uk.co.thinkofdeath.parsing.ParserException;
+import uk.co.thinkofdeath.parsing.validators.ArgumentValidator;
+
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * A command resolved to its handler ahead of time, created by
+ * {@link CommandManager#prepare(Class, String, Class[])}.
+ *
+ * <p>
+ *
+ * Any argument of the command given as a {@code ?} is a
+ * parameter which is bound before each execution, either to a
+ * value with one of the typed setters (which is passed to the
+ * handler as it is) or to an argument as it would be entered
+ * with {@link #setArgument(int, String)} (which is parsed and
+ * validated each time). The other arguments are parsed and
+ * validated once when the command is prepared, so an argument
+ * that depends on the state of the world (e.g. a player) should
+ * be a parameter.
+ *
+ * <p>
+ *
+ * Executing a prepared command only checks the caller and
+ * calls the handler, the command isn't tokenized or searched
+ * for again. Handlers registered after the command was prepared
+ * are not considered.
+ *
+ * <p>
+ *
+ * Like a JDBC PreparedStatement the parameters are state of
+ * the prepared command so an instance shouldn't be shared
+ * between threads.
+ *
+ * <pre>
+ * PreparedCommand give = commandManager.prepare(Player.class, "eco give ? ?", Player.class, int.class);
+ * give.setValue(0, target);
+ * give.setInt(1, 100);
+ * give.execute(sender);
+ * </pre>
+ */
+public final class PreparedCommand {
+
+    private final CommandNode.CommandMethod method;
+    private final CommandLocaleHandler localeHandler;
+    // The arguments of the handler with the constants and default
+    // values filled in. The caller and parameters are written
+    // into it for each execution and cleared afterwards, the
+    // handler only sees the values passed to it so doesn't need a
+    // copy and a nested execution from the handler has already
+    // had its arguments read
+    private final Object[] arguments;
+    private final long[] primitiveArguments;
+    private final int callerPosition;
+
+    // The argument, handler position, primitive type and type
+    // of each parameter
+    private final ArgumentNode[] parameters;
+    private final int[] positions;
+    private final PrimitiveType[] primitives;
+    private final Class<?>[] types;
+
+    private final Object[] values;
+    private final long[] bits;
+    // The arguments to parse in place of a value
+    private final String[] strings;
+    private final boolean[] bound;
+
+    private PreparedCommand(Route route, CommandLocaleHandler localeHandler) {
+        this.localeHandler = localeHandler;
+        method = route.method;
+        int count = route.count;
+        arguments = new Object[count];
+        primitiveArguments = new long[count];
+        callerPosition = method.argumentPositions[0];
+
+        int parameterCount = 0;
+        for (int j = 1; j < count; j++) {
+            if (route.placeholders[j] != null) {
+                parameterCount++;
+            }
+        }
+        parameters = new ArgumentNode[parameterCount];
+        positions = new int[parameterCount];
+        primitives = new PrimitiveType[parameterCount];
+        types = new Class<?>[parameterCount];
+        values = new Object[parameterCount];
+        bits = new long[parameterCount];
+        strings = new String[parameterCount];
+        bound = new boolean[parameterCount];
+
+        Class<?>[] parameterTypes = method.method.getParameterTypes();
+        for (int j = 1, index = 0; j < count; j++) {
+            int position = method.argumentPositions[j];
+            if (route.placeholders[j] != null) {
+                parameters[index] = route.placeholders[j];
+                positions[index] = position;
+                primitives[index] = method.primitives[position];
+                types[index] = parameterTypes[position];
+                index++;
+            } else if (route.values[j] == ArgumentNode.SKIPPED) {
+                method.fillDefault(position, arguments, primitiveArguments);
+            } else if (method.primitives[position] != null) {
+                primitiveArguments[position] = route.bits[j];
+            } else {
+                arguments[position] = route.values[j];
+            }
+        }
+    }
+
+    /**
+     * Resolves the command to the handler the caller class would
+     * reach, trying routes in the same order as executing it
+     *
+     * @param root
+     *         The root of the registered commands
+     * @param callerClass
+     *         The class of the callers that will execute it
+     * @param command
+     *         The command with a {@code ?} for each parameter
+     * @param types
+     *         The types of the parameters or an empty array to
+     *         accept any
+     * @param localeHandler
+     *         The locale handler for errors
+     * @return The prepared command
+     * @throws CommandException
+     *         If the command doesn't match a handler
+     */
+    static PreparedCommand prepare(CommandNode root, Class<?> callerClass, String command, Class<?>[] types,
+                                   CommandLocaleHandler localeHandler) throws CommandException {
+        SearchState search = new SearchState();
+        search.tokens.tokenize(command);
+        Route route = new Route(callerClass, types, search);
+        int parameterCount = 0;
+        for (int i = 0; i < search.tokens.count(); i++) {
+            if (route.isPlaceholder(i)) {
+                parameterCount++;
+            }
+        }
+        if (types.length != 0 && types.length != parameterCount) {
+            throw new IllegalArgumentException("Expected " + parameterCount + " parameter types");
+        }
+        if (!route.resolve(root, 0, 1)) {
+            throw new CommandException(search.error(), localeHandler);
+        }
+        return new PreparedCommand(route, localeHandler);
+    }
+
+    /**
+     * Returns the number of parameters of the command
+     *
+     * @return The number of parameters
+     */
+    public int getParameterCount() {
+        return parameters.length;
+    }
+
+    /**
+     * Binds the parameter to the value which is passed to the
+     * handler as it is, without running the argument's
+     * validators
+     *
+     * @param index
+     *         The index of the parameter
+     * @param value
+     *         The value
+     * @throws java.lang.IllegalArgumentException
+     *         If the value can't be passed to the handler
+     */
+    public void setValue(int index, Object value) {
+        if (value == null ? types[index].isPrimitive() : !box(types[index]).isInstance(value)) {
+            throw new IllegalArgumentException("Parameter " + index + " takes a " + types[index].getSimpleName());
+        }
+        if (primitives[index] != null) {
+            bind(index, primitives[index].unbox(value));
+        } else {
+            values[index] = value;
+            strings[index] = null;
+            bound[index] = true;
+        }
+    }
+
+    /**
+     * Binds the parameter to the value without boxing it if the
+     * handler takes an int, the value is widened if the handler
+     * takes a long, float or double
+     *
+     * @param index
+     *         The index of the parameter
+     * @param value
+     *         The value
+     * @see #setValue(int, Object)
+     */
+    public void setInt(int index, int value) {
+        if (primitives[index] == PrimitiveType.INT) {
+            bind(index, value);
+        } else if (widens(index, int.class)) {
+            setLong(index, value);
+        } else {
+            setValue(index, value);
+        }
+    }
+
+    /**
+     * Binds the parameter to the value without boxing it if the
+     * handler takes a long, the value is widened if the handler
+     * takes a float or double
+     *
+     * @param index
+     *         The index of the parameter
+     * @param value
+     *         The value
+     * @see #setValue(int, Object)
+     */
+    public void setLong(int index, long value) {
+        if (primitives[index] == PrimitiveType.LONG) {
+            bind(index, value);
+        } else if (widens(index, long.class)) {
+            setFloat(index, value);
+        } else {
+            setValue(index, value);
+        }
+    }
+
+    /**
+     * Binds the parameter to the value without boxing it if the
+     * handler takes a float, the value is widened if the handler
+     * takes a double
+     *
+     * @param index
+     *         The index of the parameter
+     * @param value
+     *         The value
+     * @see #setValue(int, Object)
+     */
+    public void setFloat(int index, float value) {
+        if (primitives[index] == PrimitiveType.FLOAT) {
+            bind(index, Float.floatToRawIntBits(value));
+        } else if (widens(index, float.class)) {
+            setDouble(index, value);
+        } else {
+            setValue(index, value);
+        }
+    }
+
+    /**
+     * Binds the parameter to the value without boxing it if the
+     * handler takes a double
+     *
+     * @param index
+     *         The index of the parameter
+     * @param value
+     *         The value
+     * @see #setValue(int, Object)
+     */
+    public void setDouble(int index, double value) {
+        if (primitives[index] == PrimitiveType.DOUBLE) {
+            bind(index, Double.doubleToRawLongBits(value));
+        } else {
+            setValue(index, value);
+        }
+    }
+
+    /**
+     * Binds the parameter to the value without boxing it if the
+     * handler takes a boolean
+     *
+     * @param index
+     *         The index of the parameter
+     * @param value
+     *         The value
+     * @see #setValue(int, Object)
+     */
+    public void setBoolean(int index, boolean value) {
+        if (primitives[index] == PrimitiveType.BOOLEAN) {
+            bind(index, value ? 1 : 0);
+        } else {
+            setValue(index, value);
+        }
+    }
+
+    // Returns whether a value of the primitive type has to be
+    // widened to pass it to the handler, a handler taking a
+    // boolean gets an error once widening reaches a double
+    private boolean widens(int index, Class<?> type) {
+        return types[index].isPrimitive() && types[index] != type;
+    }
+
+    private void bind(int index, long value) {
+        bits[index] = value;
+        values[index] = null;
+        strings[index] = null;
+        bound[index] = true;
+    }
+
+    /**
+     * Binds the parameter to an argument as it would be entered
+     * in the command. The argument is parsed and validated each
+     * time the command is executed, a varargs argument is split
+     * like a command
+     *
+     * @param index
+     *         The index of the parameter
+     * @param argument
+     *         The argument
+     */
+    public void setArgument(int index, String argument) {
+        if (argument == null) {
+            throw new IllegalArgumentException("Argument can't be null");
+        }
+        strings[index] = argument;
+        values[index] = null;
+        bound[index] = true;
+    }
+
+    /**
+     * Unbinds all of the parameters
+     */
+    public void clearParameters() {
+        Arrays.fill(values, null);
+        Arrays.fill(strings, null);
+        Arrays.fill(bound, false);
+    }
+
+    /**
+     * Executes the command as the passed caller
+     *
+     * @param caller
+     *         The caller to call as
+     * @throws CommandException
+     *         Thrown if the caller can't call the command or an
+     *         argument failed to parse
+     * @throws java.lang.IllegalStateException
+     *         If a parameter isn't bound
+     * @see #tryExecute(Object)
+     */
+    public void execute(Object caller) throws CommandException {
+        CommandResult result = tryExecute(caller);
+        if (!result.isSuccess()) {
+            throw new CommandException(result.getError(), localeHandler);
+        }
+    }
+
+    /**
+     * Tries to execute the command as the passed caller, returning
+     * why the command failed instead of throwing a
+     * {@link uk.co.thinkofdeath.command.CommandException}
+     *
+     * @param caller
+     *         The caller to call as
+     * @return The result of executing the command
+     * @throws java.lang.IllegalStateException
+     *         If a parameter isn't bound
+     * @see CommandManager#tryExecute(Object, String)
+     */
+    @SuppressWarnings("unchecked")
+    public CommandResult tryExecute(Object caller) {
+        if (!method.callerType.isInstance(caller)) {
+            return CommandResult.failure(CommandResult.Status.INCORRECT_CALLER,
+                    new CommandError(1, "command.incorrect.caller"));
+        }
+        try {
+            for (ArgumentValidator validator : method.argumentValidators) {
+                validator.validate(null, caller);
+            }
+        } catch (ParserException e) {
+            return CommandResult.failure(CommandResult.Status.INCORRECT_CALLER,
+                    new CommandError(e.getPriority(), e.getKey(), e.getArguments()));
+        }
+        arguments[callerPosition] = caller;
+        try {
+            for (int i = 0; i < parameters.length; i++) {
+                if (!bound[i]) {
+                    throw new IllegalStateException("Parameter " + i + " isn't bound");
+                }
+                int position = positions[i];
+                if (strings[i] != null) {
+                    if (primitives[i] != null) {
+                        primitiveArguments[position] = parsePrimitive(i);
+                        continue;
+                    }
+                    Object value = parse(i);
+                    if (value == null) { // parser error?
+                        return CommandResult.failure(CommandResult.Status.NOT_FOUND,
+                                new CommandError(1, "command.unknown"));
+                    }
+                    arguments[position] = value;
+                } else if (primitives[i] != null) {
+                    primitiveArguments[position] = bits[i];
+                } else {
+                    arguments[position] = values[i];
+                }
+            }
+            CommandManager.invoke(method, arguments, primitiveArguments);
+        } catch (ParserException e) {
+            return CommandResult.failure(CommandResult.Status.INVALID,
+                    new CommandError(e.getPriority(), e.getKey(), e.getArguments()));
+        } finally {
+            // Don't keep the caller or values alive between executions
+            arguments[callerPosition] = null;
+            for (int position : positions) {
+                arguments[position] = null;
+            }
+        }
+        return CommandResult.SUCCESS;
+    }
+
+    private long parsePrimitive(int index) throws ParserException {
+        ArgumentNode argument = parameters[index];
+        long value = argument.primitive.parse(argument.parser, strings[index]);
+        for (ArgumentValidator validator : argument.type) {
+            argument.primitive.validate(validator, strings[index], value);
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object parse(int index) throws ParserException {
+        ArgumentNode argument = parameters[index];
+        String string = strings[index];
+        Object value;
+        if (argument.restType != null) {
+            value = string;
+        } else if (argument.varargsType != null) {
+            Tokens tokens = new Tokens();
+            tokens.tokenize(string);
+            // Validated with the elements
+            return argument.parseVarargs(new ParseMemo(), tokens, 0);
+        } else {
+            value = argument.parser.parse(string);
+            if (value == null) {
+                return null;
+            }
+        }
+        for (ArgumentValidator validator : argument.type) {
+            validator.validate(string, value);
+        }
+        return value;
+    }
+
+    private static Class<?> box(Class<?> type) {
+        return type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+    }
+
+    // Finds the route a caller would take through the registered
+    // commands with the constants of the command parsed along the
+    // way. Placeholders can match any argument and are then
+    // checked against the parameter types of the handler
+    private static final class Route {
+        private final Class<?> callerClass;
+        private final Class<?>[] types;
+        private final SearchState search;
+        private final Tokens tokens;
+
+        private Object[] values = new Object[8];
+        private long[] bits = new long[8];
+        // The argument of each placeholder on the route, null
+        // for the other values
+        private ArgumentNode[] placeholders = new ArgumentNode[8];
+
+        private CommandNode.CommandMethod method;
+        private int count;
+
+        private Route(Class<?> callerClass, Class<?>[] types, SearchState search) {
+            this.callerClass = callerClass;
+            this.types = types;
+            this.search = search;
+            tokens = search.tokens;
+        }
+
+        private boolean isPlaceholder(int index) {
+            return tokens.end(index) - tokens.start(index) == 1
+                    && tokens.source().charAt(tokens.start(index)) == '?'
+                    && !tokens.isQuoted(index);
+        }
+
+        private boolean resolve(CommandNode node, int offset, int count) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count << 1);
+                bits = Arrays.copyOf(bits, count << 1);
+                placeholders = Arrays.copyOf(placeholders, count << 1);
+            }
+            if (offset == tokens.count()) {
+                if (call(node, count)) {
+                    return true;
+                }
+            } else {
+                if (!isPlaceholder(offset)) {
+                    CommandNode next = node.subCommands.get(tokens.source(), tokens.start(offset), tokens.end(offset));
+                    if (next != null && resolve(next, offset + 1, count)) {
+                        return true;
+                    }
+                }
+                // Later registrations take precedence
+                for (int i = node.arguments.length - 1; i >= 0; i--) {
+                    if (argument(node.arguments[i], offset, count)) {
+                        return true;
+                    }
+                }
+            }
+            for (int i = node.arguments.length - 1; i >= 0; i--) {
+                ArgumentNode argument = node.arguments[i];
+                if (argument.optional) {
+                    set(count, ArgumentNode.SKIPPED, 0, null);
+                    if (resolve(argument.node, offset, count + 1)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean argument(ArgumentNode argument, int offset, int count) {
+            int next = argument.greedy ? tokens.count() : offset + 1;
+            if (isPlaceholder(offset)) {
+                // Bound to the whole value of a varargs or rest
+                // argument so has to be the last token
+                if (next != offset + 1) {
+                    return false;
+                }
+                set(count, null, 0, argument);
+                return resolve(argument.node, next, count + 1);
+            }
+            if (argument.greedy) {
+                for (int i = offset + 1; i < tokens.count(); i++) {
+                    if (isPlaceholder(i)) {
+                        return false;
+                    }
+                }
+            }
+            try {
+                if (argument.restType != null) {
+                    String rest = tokens.rest(offset);
+                    for (ArgumentValidator validator : argument.type) {
+                        validator.validate(rest, rest);
+                    }
+                    set(count, rest, 0, null);
+                } else if (argument.varargsType != null) {
+                    Object out = argument.parseVarargs(search.parses, tokens, offset);
+                    if (out == null) { // parser error?
+                        return false;
+                    }
+                    set(count, out, 0, null);
+                } else if (argument.primitive != null) {
+                    long value = search.parses.parse(argument.parser, argument.primitive, tokens, offset);
+                    for (ArgumentValidator validator : argument.type) {
+                        argument.primitive.validate(validator, tokens.get(offset), value);
+                    }
+                    set(count, null, value, null);
+                } else {
+                    Object value = search.parses.parse(argument.parser, tokens, offset);
+                    if (value == null) { // parser error?
+                        return false;
+                    }
+                    for (ArgumentValidator validator : argument.type) {
+                        validator.validate(tokens.get(offset), value);
+                    }
+                    set(count, value, 0, null);
+                }
+            } catch (ParserException e) {
+                search.fail(e);
+                return false;
+            }
+            return resolve(argument.node, next, count + 1);
+        }
+
+        private void set(int index, Object value, long valueBits, ArgumentNode placeholder) {
+            values[index] = value;
+            bits[index] = valueBits;
+            placeholders[index] = placeholder;
+        }
+
+        // Picks the first handler at the node the caller class
+        // can call whose parameters take the placeholder types
+        private boolean call(CommandNode node, int count) {
+            if (node.methodArray.length == 0) {
+                search.fail(CommandResult.Status.NOT_FOUND, 1, "command.unknown");
+                return false;
+            }
+            CommandNode.CommandMethod[] methods = node.view(callerClass).methods;
+            if (methods.length == 0) {
+                search.fail(CommandResult.Status.INCORRECT_CALLER, 1, "command.incorrect.caller");
+                return false;
+            }
+            methods:
+            for (CommandNode.CommandMethod method : methods) {
+                Class<?>[] parameterTypes = method.method.getParameterTypes();
+                int index = 0;
+                for (int j = 1; j < count; j++) {
+                    if (placeholders[j] == null) {
+                        continue;
+                    }
+                    if (types.length != 0) {
+                        Class<?> type = box(parameterTypes[method.argumentPositions[j]]);
+                        if (!type.isAssignableFrom(box(types[index]))) {
+                            continue methods;
+                        }
+                    }
+                    index++;
+                }
+                this.method = method;
+                this.count = count;
+                return true;
+            }
+            search.fail(CommandResult.Status.NOT_FOUND, 1, "command.unknown");
+            return false;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.command;
+
+import uk.co.thinkofdeath.parsing.ParserException;
+import uk.co.thinkofdeath.parsing.parsers.ArgumentParser;
+import uk.co.thinkofdeath.parsing.parsers.BooleanArgumentParser;
+import uk.co.thinkofdeath.parsing.parsers.DoubleArgumentParser;
+import uk.co.thinkofdeath.parsing.parsers.FloatArgumentParser;
+import uk.co.thinkofdeath.parsing.parsers.IntArgumentParser;
+import uk.co.thinkofdeath.parsing.parsers.LongArgumentParser;
+import uk.co.thinkofdeath.parsing.validators.ArgumentValidator;
+import uk.co.thinkofdeath.parsing.validators.DoubleArgumentValidator;
+import uk.co.thinkofdeath.parsing.validators.FloatArgumentValidator;
+import uk.co.thinkofdeath.parsing.validators.IntArgumentValidator;
+import uk.co.thinkofdeath.parsing.validators.LongArgumentValidator;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * The primitive types that can be passed from a parser to a
+ * handler without boxing.
+ *
+ * <p>
+ *
+ * While searching, values of these types are stored as the
+ * bits of a long (floating point values by their raw bits)
+ * alongside the boxed values of other arguments. Handlers
+ * take them from a long array and convert them back with
+ * {@link #unpacker}.
+ */
+enum PrimitiveType {
+    INT(int.class, IntArgumentParser.class) {
+        @Override
+        long parse(ArgumentParser parser, String argument) throws ParserException {
+            return ((IntArgumentParser) parser).parseInt(argument);
+        }
+
+        @Override
+        void validate(ArgumentValidator validator, String argument, long bits) throws ParserException {
+            if (validator instanceof IntArgumentValidator) {
+                ((IntArgumentValidator) validator).validateInt(argument, (int) bits);
+            } else {
+                super.validate(validator, argument, bits);
+            }
+        }
+
+        @Override
+        Object box(long bits) {
+            return (int) bits;
+        }
+
+        @Override
+        long unbox(Object value) {
+            return (Integer) value;
+        }
+
+        @Override
+        Object newArray(int length) {
+            return new int[length];
+        }
+
+        @Override
+        void store(Object array, int index, long bits) {
+            ((int[]) array)[index] = (int) bits;
+        }
+
+        @Override
+        long load(Object array, int index) {
+            return ((int[]) array)[index];
+        }
+    },
+    LONG(long.class, LongArgumentParser.class) {
+        @Override
+        long parse(ArgumentParser parser, String argument) throws ParserException {
+            return ((LongArgumentParser) parser).parseLong(argument);
+        }
+
+        @Override
+        void validate(ArgumentValidator validator, String argument, long bits) throws ParserException {
+            if (validator instanceof LongArgumentValidator) {
+                ((LongArgumentValidator) validator).validateLong(argument, bits);
+            } else {
+                super.validate(validator, argument, bits);
+            }
+        }
+
+        @Override
+        Object box(long bits) {
+            return bits;
+        }
+
+        @Override
+        long unbox(Object value) {
+            return (Long) value;
+        }
+
+        @Override
+        Object newArray(int length) {
+            return new long[length];
+        }
+
+        @Override
+        void store(Object array, int index, long bits) {
+            ((long[]) array)[index] = bits;
+        }
+
+        @Override
+        long load(Object array, int index) {
+            return ((long[]) array)[index];
+        }
+    },
+    FLOAT(float.class, FloatArgumentParser.class) {
+        @Override
+        long parse(ArgumentParser parser, String argument) throws ParserException {
+            return Float.floatToRawIntBits(((FloatArgumentParser) parser).parseFloat(argument));
+        }
+
+        @Override
+        void validate(ArgumentValidator validator, String argument, long bits) throws ParserException {
+            if (validator instanceof FloatArgumentValidator) {
+                ((FloatArgumentValidator) validator).validateFloat(argument, toFloat(bits));
+            } else {
+                super.validate(validator, argument, bits);
+            }
+        }
+
+        @Override
+        Object box(long bits) {
+            return toFloat(bits);
+        }
+
+        @Override
+        long unbox(Object value) {
+            return Float.floatToRawIntBits((Float) value);
+        }
+
+        @Override
+        Object newArray(int length) {
+            return new float[length];
+        }
+
+        @Override
+        void store(Object array, int index, long bits) {
+            ((float[]) array)[index] = toFloat(bits);
+        }
+
+        @Override
+        long load(Object array, int index) {
+            return Float.floatToRawIntBits(((float[]) array)[index]);
+        }
+    },
+    DOUBLE(double.class, DoubleArgumentParser.class) {
+        @Override
+        long parse(ArgumentParser parser, String argument) throws ParserException {
+            return Double.doubleToRawLongBits(((DoubleArgumentParser) parser).parseDouble(argument));
+        }
+
+        @Override
+        void validate(ArgumentValidator validator, String argument, long bits) throws ParserException {
+            if (validator instanceof DoubleArgumentValidator) {
+                ((DoubleArgumentValidator) validator).validateDouble(argument, toDouble(bits));
+            } else {
+                super.validate(validator, argument, bits);
+            }
+        }
+
+        @Override
+        Object box(long bits) {
+            return toDouble(bits);
+        }
+
+        @Override
+        long unbox(Object value) {
+            return Double.doubleToRawLongBits((Double) value);
+        }
+
+        @Override
+        Object newArray(int length) {
+            return new double[length];
+        }
+
+        @Override
+        void store(Object array, int index, long bits) {
+            ((double[]) array)[index] = toDouble(bits);
+        }
+
+        @Override
+        long load(Object array, int index) {
+            return Double.doubleToRawLongBits(((double[]) array)[index]);
+        }
+    },
+    BOOLEAN(boolean.class, BooleanArgumentParser.class) {
+        @Override
+        long parse(ArgumentParser parser, String argument) throws ParserException {
+            return ((BooleanArgumentParser) parser).parseBoolean(argument) ? 1 : 0;
+        }
+
+        @Override
+        Object box(long bits) {
+            return toBoolean(bits);
+        }
+
+        @Override
+        long unbox(Object value) {
+            return (Boolean) value ? 1 : 0;
+        }
+
+        @Override
+        Object newArray(int length) {
+            return new boolean[length];
+        }
+
+        @Override
+        void store(Object array, int index, long bits) {
+            ((boolean[]) array)[index] = toBoolean(bits);
+        }
+
+        @Override
+        long load(Object array, int index) {
+            return ((boolean[]) array)[index] ? 1 : 0;
+        }
+    };
+
+    final Class<?> type;
+    private final Class<? extends ArgumentParser> parserType;
+    // Converts the bits back into the type, (long)type
+    final MethodHandle unpacker;
+
+    PrimitiveType(Class<?> type, Class<? extends ArgumentParser> parserType) {
+        this.type = type;
+        this.parserType = parserType;
+        try {
+            unpacker = MethodHandles.lookup().findStatic(PrimitiveType.class,
+                    "to" + Character.toUpperCase(type.getName().charAt(0)) + type.getName().substring(1),
+                    MethodType.methodType(type, long.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the primitive type that values parsed by the parser
+     * can be passed as to a parameter of the passed type
+     *
+     * @param parser
+     *         The parser of the argument
+     * @param type
+     *         The type of the parameter
+     * @return The primitive type or null if the values have to
+     * be boxed
+     */
+    static PrimitiveType of(ArgumentParser parser, Class<?> type) {
+        if (!type.isPrimitive()) {
+            return null;
+        }
+        for (PrimitiveType primitiveType : values()) {
+            if (primitiveType.type == type && primitiveType.parserType.isInstance(parser)) {
+                return primitiveType;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the argument with the parser's primitive method
+     *
+     * @param parser
+     *         The parser, must implement the primitive parser
+     *         interface of this type
+     * @param argument
+     *         The argument to parse
+     * @return The bits of the parsed value
+     * @throws ParserException
+     *         If the parser failed
+     */
+    abstract long parse(ArgumentParser parser, String argument) throws ParserException;
+
+    /**
+     * Validates the value, without boxing it if the validator
+     * supports this type
+     *
+     * @param validator
+     *         The validator
+     * @param argument
+     *         The argument the value was parsed from
+     * @param bits
+     *         The bits of the value
+     * @throws ParserException
+     *         If the value is invalid
+     */
+    @SuppressWarnings("unchecked")
+    void validate(ArgumentValidator validator, String argument, long bits) throws ParserException {
+        validator.validate(argument, box(bits));
+    }
+
+    /**
+     * Boxes the value
+     *
+     * @param bits
+     *         The bits of the value
+     * @return The boxed value
+     */
+    abstract Object box(long bits);
+
+    /**
+     * Returns the bits of a boxed value of this type
+     *
+     * @param value
+     *         The boxed value
+     * @return The bits of the value
+     * @throws java.lang.ClassCastException
+     *         If the value isn't of this type's wrapper
+     */
+    abstract long unbox(Object value);
+
+    /**
+     * Creates an array of this type
+     *
+     * @param length
+     *         The length of the array
+     * @return The array
+     */
+    abstract Object newArray(int length);
+
+    /**
+     * Stores the value into an array created by
+     * {@link #newArray(int)}
+     *
+     * @param array
+     *         The array
+     * @param index
+     *         The index to store the value at
+     * @param bits
+     *         The bits of the value
+     */
+    abstract void store(Object array, int index, long bits);
+
+    /**
+     * Loads the bits of a value from an array created by
+     * {@link #newArray(int)}
+     *
+     * @param array
+     *         The array
+     * @param index
+     *         The index of the value
+     * @return The bits of the value
+     */
+    abstract long load(Object array, int index);
+
+    static int toInt(long bits) {
+        return (int) bits;
+    }
+
+    static long toLong(long bits) {
+        return bits;
+    }
+
+    static float toFloat(long bits) {
+        return Float.intBitsToFloat((int) bits);
+    }
+
+    static double toDouble(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    static boolean toBoolean(long bits) {
+        return bits != 0;
+    }
+}
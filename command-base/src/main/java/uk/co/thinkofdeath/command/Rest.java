@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.command;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the last argument of a command as taking the rest of
+ * the command exactly as it was entered, spacing and quotes
+ * included, instead of a single token. The parameter must be
+ * a String or a CharSequence, a CharSequence is a view of the
+ * command that isn't copied.
+ *
+ * <pre>
+ * {@literal @}Command("broadcast ?")
+ * public void broadcast(CommandSender sender, {@literal @}Rest String message)
+ * </pre>
+ *
+ * At least one token has to follow the previous argument.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Rest {
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.command;
+
+import uk.co.thinkofdeath.parsing.ParserException;
+import uk.co.thinkofdeath.parsing.validators.ArgumentValidator;
+
+import java.util.Arrays;
+
+/**
+ * The working memory of a single command search.
+ *
+ * <p>
+ *
+ * States the search has visited are stored in flat arrays
+ * (a state is an index into them) with a link to the state
+ * they were reached from so the arguments of a route can be
+ * collected by walking back to the root. Pending states are
+ * kept as a stack of indexes.
+ *
+ * <p>
+ *
+ * Instances are reused between searches by the
+ * {@link CommandManager} so a search that doesn't need to
+ * grow the arrays doesn't allocate.
+ */
+final class SearchState {
+
+    private static final int INITIAL_SIZE = 16;
+
+    final Tokens tokens = new Tokens();
+    final ParseMemo parses = new ParseMemo();
+
+    CommandNode[] nodes = new CommandNode[INITIAL_SIZE];
+    Object[] values = new Object[INITIAL_SIZE];
+    // The bits of primitive values, the value of such a state
+    // is null
+    long[] primitives = new long[INITIAL_SIZE];
+    int[] offsets = new int[INITIAL_SIZE];
+    int[] parents = new int[INITIAL_SIZE];
+    private int size;
+
+    private int[] pending = new int[INITIAL_SIZE];
+    private int pendingSize;
+
+    // The values collected along the current route when
+    // dispatching through a compiled tree
+    Object[] path = new Object[INITIAL_SIZE];
+    long[] primitivePath = new long[INITIAL_SIZE];
+
+    // Argument arrays passed to handlers, indexed by length
+    private Object[][] frames = new Object[INITIAL_SIZE][];
+    private long[] primitiveFrame = new long[INITIAL_SIZE];
+
+    // Flags for (node, offset) pairs, the node's id is in the
+    // upper half of the key and the offset in the lower half.
+    // 0 marks an empty slot
+    static final int FAILED = 1;
+    static final int MATCHES = 2;
+    static final int NO_MATCH = 4;
+    private long[] stateKeys = new long[INITIAL_SIZE];
+    private byte[] stateFlags = new byte[INITIAL_SIZE];
+    private int stateSize;
+
+    private int explored;
+    private int limit;
+
+    // The results of the caller validators run so far, the
+    // caller doesn't change during a search so each only needs
+    // to run once. A null result means the caller passed
+    private ArgumentValidator[] checkedValidators = new ArgumentValidator[4];
+    private ParserException[] checkResults = new ParserException[4];
+    private int checkedSize;
+
+    // The highest priority failure seen so far, only turned
+    // into a CommandError once the whole search has failed
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+    private int errorPriority;
+    private String errorKey;
+    private Object[] errorArguments;
+    private CommandResult.Status errorStatus;
+
+    // When set the handler found by the search isn't called,
+    // the call is recorded (with copies of the arguments) for
+    // a batch to make later
+    boolean deferCalls;
+    CommandNode.CommandMethod deferredMethod;
+    Object[] deferredArguments;
+    long[] deferredPrimitives;
+
+    /**
+     * Adds a new state and marks it as pending
+     *
+     * @param node
+     *         The node the state is at
+     * @param value
+     *         The value parsed to reach this state
+     * @param offset
+     *         The offset into the arguments of the state
+     * @param parent
+     *         The index of the state this was reached from
+     *         or -1 for the root
+     * @return The index of the new state
+     */
+    int push(CommandNode node, Object value, int offset, int parent) {
+        return push(node, value, 0, offset, parent);
+    }
+
+    /**
+     * Adds a new state reached by parsing a primitive value and
+     * marks it as pending
+     *
+     * @param node
+     *         The node the state is at
+     * @param bits
+     *         The bits of the value parsed to reach this state
+     * @param offset
+     *         The offset into the arguments of the state
+     * @param parent
+     *         The index of the state this was reached from
+     * @return The index of the new state
+     * @see PrimitiveType
+     */
+    int push(CommandNode node, long bits, int offset, int parent) {
+        return push(node, null, bits, offset, parent);
+    }
+
+    private int push(CommandNode node, Object value, long bits, int offset, int parent) {
+        if (size == nodes.length) {
+            int newSize = size << 1;
+            nodes = Arrays.copyOf(nodes, newSize);
+            values = Arrays.copyOf(values, newSize);
+            primitives = Arrays.copyOf(primitives, newSize);
+            offsets = Arrays.copyOf(offsets, newSize);
+            parents = Arrays.copyOf(parents, newSize);
+        }
+        int index = size++;
+        nodes[index] = node;
+        values[index] = value;
+        primitives[index] = bits;
+        offsets[index] = offset;
+        parents[index] = parent;
+
+        if (pendingSize == pending.length) {
+            pending = Arrays.copyOf(pending, pendingSize << 1);
+        }
+        pending[pendingSize++] = index;
+        return index;
+    }
+
+    /**
+     * Pushes a marker that will be popped (as the bitwise
+     * complement of the state) once every state pushed after
+     * it has been explored
+     *
+     * @param state
+     *         The state being expanded
+     */
+    void pushFinished(int state) {
+        if (pendingSize == pending.length) {
+            pending = Arrays.copyOf(pending, pendingSize << 1);
+        }
+        pending[pendingSize++] = ~state;
+    }
+
+    boolean hasPending() {
+        return pendingSize != 0;
+    }
+
+    int pop() {
+        return pending[--pendingSize];
+    }
+
+    /**
+     * Counts a state as explored
+     *
+     * @return False if the search has explored more states than
+     * its limit allows
+     */
+    boolean explore() {
+        return ++explored <= limit;
+    }
+
+    void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Records that the node at the offset has been explored
+     *
+     * @param node
+     *         The node
+     * @param offset
+     *         The offset into the tokens
+     */
+    void markFailed(CommandNode node, int offset) {
+        addFlags(node, offset, FAILED);
+    }
+
+    /**
+     * Returns whether the node at the offset has already been
+     * explored
+     *
+     * @param node
+     *         The node
+     * @param offset
+     *         The offset into the tokens
+     * @return Whether it has been explored
+     */
+    boolean hasFailed(CommandNode node, int offset) {
+        return (flags(node, offset) & FAILED) != 0;
+    }
+
+    /**
+     * Returns the flags recorded for the node at the offset
+     *
+     * @param node
+     *         The node
+     * @param offset
+     *         The offset into the tokens
+     * @return The flags or 0 if none have been recorded
+     */
+    int flags(CommandNode node, int offset) {
+        if (stateSize == 0) {
+            return 0;
+        }
+        int slot = slot(key(node, offset));
+        return stateFlags[slot];
+    }
+
+    /**
+     * Adds flags to the node at the offset
+     *
+     * @param node
+     *         The node
+     * @param offset
+     *         The offset into the tokens
+     * @param flags
+     *         The flags to add
+     */
+    void addFlags(CommandNode node, int offset, int flags) {
+        if ((stateSize + 1) << 1 > stateKeys.length) {
+            long[] oldKeys = stateKeys;
+            byte[] oldFlags = stateFlags;
+            stateKeys = new long[oldKeys.length << 1];
+            stateFlags = new byte[oldKeys.length << 1];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = slot(oldKeys[i]);
+                    stateKeys[slot] = oldKeys[i];
+                    stateFlags[slot] = oldFlags[i];
+                }
+            }
+        }
+        long key = key(node, offset);
+        int slot = slot(key);
+        if (stateKeys[slot] != key) {
+            stateKeys[slot] = key;
+            stateSize++;
+        }
+        stateFlags[slot] |= flags;
+    }
+
+    private static long key(CommandNode node, int offset) {
+        return ((long) node.id << 32) | offset;
+    }
+
+    // Finds the slot holding the key or the empty slot it
+    // should be placed in
+    private int slot(long key) {
+        int mask = stateKeys.length - 1;
+        int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (stateKeys[slot] != 0 && stateKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Validates the caller with each of the validators, only
+     * running a validator if it hasn't been run already during
+     * this search
+     *
+     * @param validators
+     *         The caller validators
+     * @param caller
+     *         The caller of the command
+     * @return The failure of the first validator that rejects
+     * the caller or null if they all accept it
+     */
+    @SuppressWarnings("unchecked")
+    ParserException checkCaller(ArgumentValidator[] validators, Object caller) {
+        validators:
+        for (ArgumentValidator validator : validators) {
+            for (int i = 0; i < checkedSize; i++) {
+                if (checkedValidators[i] == validator) {
+                    if (checkResults[i] != null) {
+                        return checkResults[i];
+                    }
+                    continue validators;
+                }
+            }
+            ParserException result = null;
+            try {
+                validator.validate(null, caller);
+            } catch (ParserException e) {
+                result = e;
+            }
+            if (checkedSize == checkedValidators.length) {
+                checkedValidators = Arrays.copyOf(checkedValidators, checkedSize << 1);
+                checkResults = Arrays.copyOf(checkResults, checkedSize << 1);
+            }
+            checkedValidators[checkedSize] = validator;
+            checkResults[checkedSize] = result;
+            checkedSize++;
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a path buffer that can hold at least the
+     * passed number of values. {@link #primitivePath} is
+     * grown to the same length
+     *
+     * @param length
+     *         The minimum length
+     * @return The path buffer
+     */
+    Object[] path(int length) {
+        if (path.length < length) {
+            path = new Object[length];
+            primitivePath = new long[length];
+        }
+        return path;
+    }
+
+    /**
+     * Returns a cleared array of exactly the passed length
+     * to fill with the arguments of a handler. The array
+     * must be returned with {@link #clearFrame(Object[])}
+     * once the handler has been called
+     *
+     * @param length
+     *         The length of the array
+     * @return The array
+     */
+    Object[] frame(int length) {
+        if (length >= frames.length) {
+            frames = Arrays.copyOf(frames, length + 1);
+        }
+        Object[] frame = frames[length];
+        if (frame == null) {
+            frame = frames[length] = new Object[length];
+        }
+        return frame;
+    }
+
+    /**
+     * Returns an array of at least the passed length to fill
+     * with the primitive arguments of a handler
+     *
+     * @param length
+     *         The minimum length
+     * @return The array
+     * @see PrimitiveType
+     */
+    long[] primitiveFrame(int length) {
+        if (primitiveFrame.length < length) {
+            primitiveFrame = new long[length];
+        }
+        return primitiveFrame;
+    }
+
+    void clearFrame(Object[] frame) {
+        Arrays.fill(frame, null);
+    }
+
+    /**
+     * Calls the handler with the arguments or records the call
+     * if the search is deferring calls
+     *
+     * @param method
+     *         The handler
+     * @param arguments
+     *         The arguments of the handler
+     * @param primitives
+     *         The primitive arguments of the handler
+     * @see CommandManager#invoke(CommandNode.CommandMethod, Object[], long[])
+     */
+    void call(CommandNode.CommandMethod method, Object[] arguments, long[] primitives) {
+        if (deferCalls) {
+            deferredMethod = method;
+            deferredArguments = arguments.clone();
+            deferredPrimitives = primitives.clone();
+        } else {
+            CommandManager.invoke(method, arguments, primitives);
+        }
+    }
+
+    /**
+     * Records a failure if it has a higher priority than any
+     * failure recorded so far
+     *
+     * @param status
+     *         The status of the result if the search fails
+     *         with this failure
+     * @param priority
+     *         The priority of the failure
+     * @param key
+     *         The locale key of the failure
+     */
+    void fail(CommandResult.Status status, int priority, String key) {
+        fail(status, priority, key, NO_ARGUMENTS);
+    }
+
+    /**
+     * Records a failure if it has a higher priority than any
+     * failure recorded so far
+     *
+     * @param e
+     *         The exception thrown by a parser or validator
+     */
+    void fail(ParserException e) {
+        fail(CommandResult.Status.INVALID, e.getPriority(), e.getKey(), e.getArguments());
+    }
+
+    /**
+     * Records a failure of a caller validator if it has a higher
+     * priority than any failure recorded so far
+     *
+     * @param e
+     *         The exception thrown by the validator
+     * @see #checkCaller(ArgumentValidator[], Object)
+     */
+    void failCaller(ParserException e) {
+        fail(CommandResult.Status.INCORRECT_CALLER, e.getPriority(), e.getKey(), e.getArguments());
+    }
+
+    private void fail(CommandResult.Status status, int priority, String key, Object[] arguments) {
+        if (errorKey == null || errorPriority < priority) {
+            errorPriority = priority;
+            errorKey = key;
+            errorArguments = arguments;
+            errorStatus = status;
+        }
+    }
+
+    /**
+     * Creates the error for the highest priority failure
+     * recorded, if the failure has a lower priority than an
+     * unknown command that is used instead
+     *
+     * @return The error
+     */
+    CommandError error() {
+        fail(CommandResult.Status.NOT_FOUND, 1, "command.unknown");
+        return new CommandError(errorPriority, errorKey, errorArguments);
+    }
+
+    /**
+     * Creates the result for the highest priority failure
+     * recorded
+     *
+     * @return The result
+     * @see #error()
+     */
+    CommandResult failure() {
+        CommandError error = error();
+        return CommandResult.failure(errorStatus, error);
+    }
+
+    /**
+     * Resets the state ready for the next search, dropping
+     * references to the command and any values parsed
+     */
+    void reset() {
+        tokens.reset();
+        parses.reset();
+        Arrays.fill(nodes, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(path, null);
+        size = 0;
+        pendingSize = 0;
+        if (stateSize != 0) {
+            Arrays.fill(stateKeys, 0);
+            Arrays.fill(stateFlags, (byte) 0);
+            stateSize = 0;
+        }
+        explored = 0;
+        if (checkedSize != 0) {
+            Arrays.fill(checkedValidators, 0, checkedSize, null);
+            Arrays.fill(checkResults, 0, checkedSize, null);
+            checkedSize = 0;
+        }
+        errorKey = null;
+        errorArguments = null;
+        errorStatus = null;
+        deferCalls = false;
+        deferredMethod = null;
+        deferredArguments = null;
+        deferredPrimitives = null;
+    }
+}
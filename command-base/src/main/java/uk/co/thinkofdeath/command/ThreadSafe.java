@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.command;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a command handler as safe to call concurrently with
+ * other handlers. When a batch is executed in parallel the
+ * handlers of consecutive lines marked with this run on the
+ * batch's pool, any other handler waits for them and runs on
+ * the thread executing the batch.
+ *
+ * @see uk.co.thinkofdeath.command.CommandManager#executeBatch(java.util.List, java.util.List, java.util.concurrent.ForkJoinPool)
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ThreadSafe {
+}
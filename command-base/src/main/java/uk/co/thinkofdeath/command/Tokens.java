@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.command;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * The tokens of a command stored as offsets into the
+ * original string.
+ *
+ * <p>
+ *
+ * Tokens are separated by a single whitespace character,
+ * so two separators in a row produce an empty token. A
+ * token starting with '`' runs until the next '`' on the
+ * same line and may contain whitespace, the quotes are not
+ * part of the token. A '`' without a closing quote is
+ * treated as a normal character.
+ *
+ * <p>
+ *
+ * The string of a token is only created when it is
+ * requested with {@link #get(int)} (e.g. when it is passed
+ * to a parser) and is then kept for the rest of the search.
+ */
+final class Tokens {
+
+    private static final int INITIAL_SIZE = 8;
+
+    private String source;
+    // Where each token starts in the command including any
+    // quote or whitespace trimmed from it
+    private int[] rawStarts = new int[INITIAL_SIZE];
+    private int[] starts = new int[INITIAL_SIZE];
+    private int[] ends = new int[INITIAL_SIZE];
+    private String[] strings = new String[INITIAL_SIZE];
+    private int count;
+
+    /**
+     * Splits the command into tokens replacing any
+     * previous tokens
+     *
+     * @param command
+     *         The command to split
+     */
+    void tokenize(String command) {
+        reset();
+        source = command;
+        scan(0);
+    }
+
+    /**
+     * Uses the name and arguments as the tokens replacing any
+     * previous tokens. The result is the same as tokenizing the
+     * name and arguments joined by spaces but an argument is only
+     * scanned if it starts a quote or contains whitespace, the
+     * other arguments are used as tokens as they are
+     *
+     * @param name
+     *         The name of the command
+     * @param args
+     *         The arguments of the command split by spaces
+     */
+    void tokenize(String name, String[] args) {
+        reset();
+        int length = name.length();
+        for (String arg : args) {
+            length += arg.length() + 1;
+        }
+        StringBuilder command = new StringBuilder(length).append(name);
+        for (String arg : args) {
+            command.append(' ').append(arg);
+        }
+        source = command.toString();
+        int position = 0;
+        // A trailing empty argument doesn't produce a token
+        for (int i = -1; i < args.length && position < length; i++) {
+            String token = i == -1 ? name : args[i];
+            if (!isPlain(token)) {
+                // Let the scanner handle the rest of the command
+                scan(position);
+                return;
+            }
+            add(position, position, position + token.length());
+            strings[count - 1] = token;
+            position += token.length() + 1;
+        }
+    }
+
+    // Splits the source into tokens from the position
+    private void scan(int position) {
+        String command = source;
+        int length = command.length();
+        while (position < length) {
+            if (command.charAt(position) == '`') {
+                int close = closingQuote(command, position + 1);
+                if (close != -1) {
+                    add(position, position + 1, close);
+                    position = close + 1;
+                    // The quote ends the token, skip the separator
+                    // after it so it doesn't start an empty one
+                    if (position < length && isSeparator(command.charAt(position))) {
+                        position++;
+                    }
+                    continue;
+                }
+            }
+            int end = position;
+            while (end < length && !isSeparator(command.charAt(end))) {
+                end++;
+            }
+            // Matches String.trim() which the old splitter
+            // applied to each token
+            int start = position;
+            int trimmedEnd = end;
+            while (start < trimmedEnd && command.charAt(start) <= ' ') {
+                start++;
+            }
+            while (trimmedEnd > start && command.charAt(trimmedEnd - 1) <= ' ') {
+                trimmedEnd--;
+            }
+            add(position, start, trimmedEnd);
+            // Skip the separator
+            position = end + 1;
+        }
+    }
+
+    private void add(int rawStart, int start, int end) {
+        if (count == starts.length) {
+            int newSize = count << 1;
+            rawStarts = Arrays.copyOf(rawStarts, newSize);
+            starts = Arrays.copyOf(starts, newSize);
+            ends = Arrays.copyOf(ends, newSize);
+            strings = Arrays.copyOf(strings, newSize);
+        }
+        rawStarts[count] = rawStart;
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    // Whether the argument is a token by itself, false if it
+    // starts a quote or the scanner would split or trim it
+    private static boolean isPlain(String arg) {
+        if (!arg.isEmpty() && arg.charAt(0) == '`') {
+            return false;
+        }
+        for (int i = 0; i < arg.length(); i++) {
+            if (arg.charAt(i) <= ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns the index of the quote closing the token or
+    // -1 if it isn't closed before the end of the line
+    private static int closingQuote(String command, int from) {
+        for (int i = from; i < command.length(); i++) {
+            char c = command.charAt(i);
+            if (c == '`') {
+                return i;
+            }
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // The characters matched by \s
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    int count() {
+        return count;
+    }
+
+    String source() {
+        return source;
+    }
+
+    int start(int index) {
+        return starts[index];
+    }
+
+    int end(int index) {
+        return ends[index];
+    }
+
+    /**
+     * Returns the token at the index as a string
+     *
+     * @param index
+     *         The index of the token
+     * @return The token
+     */
+    String get(int index) {
+        String token = strings[index];
+        if (token == null) {
+            token = strings[index] = source.substring(starts[index], ends[index]);
+        }
+        return token;
+    }
+
+    /**
+     * Returns whether the token at the index was wrapped in
+     * '`' quotes
+     *
+     * @param index
+     *         The index of the token
+     * @return Whether the token was quoted
+     */
+    boolean isQuoted(int index) {
+        return starts[index] == rawStarts[index] + 1 && source.charAt(rawStarts[index]) == '`';
+    }
+
+    /**
+     * Returns the command from the token at the index to the
+     * end exactly as it was entered, including the spacing and
+     * quotes
+     *
+     * @param index
+     *         The index of the first token
+     * @return The rest of the command
+     */
+    String rest(int index) {
+        return source.substring(rawStarts[index]);
+    }
+
+    /**
+     * Returns a view of the command from the token at the index
+     * to the end exactly as it was entered, without copying it
+     *
+     * @param index
+     *         The index of the first token
+     * @return The rest of the command
+     * @see #rest(int)
+     */
+    CharSequence restView(int index) {
+        return CharBuffer.wrap(source, rawStarts[index], source.length());
+    }
+
+    /**
+     * Returns whether the value starts with the token at the
+     * index ignoring case
+     *
+     * @param index
+     *         The index of the token
+     * @param value
+     *         The value to test
+     * @return Whether the value starts with the token
+     */
+    boolean isPrefixOf(int index, String value) {
+        int length = ends[index] - starts[index];
+        return value.length() >= length && value.regionMatches(true, 0, source, starts[index], length);
+    }
+
+    /**
+     * Removes all tokens and drops the reference to the
+     * command
+     */
+    void reset() {
+        Arrays.fill(strings, 0, count, null);
+        count = 0;
+        source = null;
+    }
+}
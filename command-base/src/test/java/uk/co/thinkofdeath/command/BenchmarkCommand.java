@@ -27,9 +27,12 @@ public class BenchmarkCommand implements CommandHandler {
     public final BenchmarkRule benchmarkRule = new BenchmarkRule();
 
     private final CommandManager commandManager = new CommandManager();
+    private final CommandManager compiledManager = new CommandManager();
 
     {
         commandManager.register(this);
+        compiledManager.register(this);
+        compiledManager.compile();
     }
 
     @Test
@@ -44,6 +47,18 @@ public class BenchmarkCommand implements CommandHandler {
         commandManager.execute("tester", "hello 46 number");
     }
 
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 20000, warmupRounds = 100)
+    public void executeCompiled() throws CommandException {
+        compiledManager.execute("tester", "hello world test");
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 20000, warmupRounds = 100)
+    public void executeCompiled2() throws CommandException {
+        compiledManager.execute("tester", "hello 46 number");
+    }
+
     @Command("hello world test")
     public void testCommand(String sender) {
     }
@@ -16,10 +16,25 @@
 
 package uk.co.thinkofdeath.command;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
+import uk.co.thinkofdeath.parsing.validators.Range;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 @SuppressWarnings("unused")
@@ -269,4 +284,636 @@ public class TestCommand {
         });
         commandManager.execute("tester", "test a b c");
     }
+
+    @Test(expected = IllegalStateException.class)
+    public void handlerExceptionNotWrapped() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        commandManager.register(new CommandHandler() {
+            @Command("explode")
+            private void explode(String caller) {
+                throw new IllegalStateException();
+            }
+        });
+        commandManager.execute("tester", "explode");
+    }
+
+    @Test
+    public void executeCompiled() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final AtomicInteger callCount = new AtomicInteger();
+        commandManager.register(new CommandHandler() {
+            @Command("give ? ?")
+            public void give(String sender, String name, int money) {
+                assertEquals("timmy", name);
+                assertEquals(55, money);
+                callCount.incrementAndGet();
+            }
+
+            @Command("give ? all")
+            public void giveAll(String sender, String name) {
+                assertEquals("timmy", name);
+                callCount.incrementAndGet();
+            }
+
+            @Command("list ?")
+            public void list(String sender, String... names) {
+                assertEquals(3, names.length);
+                callCount.incrementAndGet();
+            }
+        });
+        commandManager.compile();
+        commandManager.execute("jimmy", "GIVE timmy 55");
+        commandManager.execute("jimmy", "give timmy all");
+        commandManager.execute("jimmy", "list a b c");
+        assertEquals(3, callCount.get());
+        try {
+            commandManager.execute("jimmy", "give timmy cake");
+            fail("Shouldn't be called");
+        } catch (CommandException e) {
+            assertEquals("parser.integer.invalid", e.getError().getKey());
+        }
+    }
+
+    @Test
+    public void registerAfterCompile() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final AtomicInteger callCount = new AtomicInteger();
+        commandManager.register(new CommandHandler() {
+            @Command("first")
+            public void first(String sender) {
+                callCount.incrementAndGet();
+            }
+        });
+        commandManager.compile();
+        commandManager.register(new CommandHandler() {
+            @Command("second")
+            public void second(String sender) {
+                callCount.incrementAndGet();
+            }
+        });
+        commandManager.execute("jimmy", "first");
+        commandManager.execute("jimmy", "second");
+        assertEquals(2, callCount.get());
+    }
+
+    @Test
+    public void executeNested() throws CommandException {
+        final CommandManager commandManager = new CommandManager();
+        final AtomicInteger callCount = new AtomicInteger();
+        commandManager.register(new CommandHandler() {
+            @Command("outer ?")
+            public void outer(String sender, String arg) throws CommandException {
+                commandManager.execute(sender, "inner " + arg + " 5");
+                assertEquals("first", arg);
+                callCount.incrementAndGet();
+            }
+
+            @Command("inner ? ?")
+            public void inner(String sender, String arg, int number) {
+                assertEquals("first", arg);
+                assertEquals(5, number);
+                callCount.incrementAndGet();
+            }
+        });
+        commandManager.execute("jimmy", "outer first");
+        assertEquals(2, callCount.get());
+    }
+
+    @Test
+    public void quotedArguments() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final AtomicInteger callCount = new AtomicInteger();
+        commandManager.register(new CommandHandler() {
+            @Command("tell ? ?")
+            public void tell(String sender, String target, String message) {
+                assertEquals("jim bob", target);
+                assertEquals("hello world", message);
+                callCount.incrementAndGet();
+            }
+
+            @Command("tell ? empty")
+            public void tellEmpty(String sender, String target) {
+                assertEquals("", target);
+                callCount.incrementAndGet();
+            }
+        });
+        commandManager.execute("tester", "tell `jim bob` `hello world`");
+        commandManager.execute("tester", "TELL `` EMPTY");
+        assertEquals(2, callCount.get());
+    }
+
+    @Test
+    public void searchLimit() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        commandManager.register(new CommandHandler() {
+            @Command("a ? ? ? ? end")
+            public void test(String sender, String a, String b, String c, String d) {
+                fail("Shouldn't be called");
+            }
+
+            @Command("a ? ? ? ? ? ok")
+            public void test(String sender, String a, String b, String c, String d, String e) {
+            }
+        });
+        commandManager.execute("tester", "a b c d e f ok");
+        commandManager.setSearchLimit(4);
+        try {
+            commandManager.execute("tester", "a b c d e f ok");
+            fail("Shouldn't be called");
+        } catch (CommandException e) {
+            assertEquals("command.too.complex", e.getError().getKey());
+        }
+    }
+
+    @Test
+    public void tryExecute() {
+        CommandManager commandManager = new CommandManager();
+        final AtomicInteger callCount = new AtomicInteger();
+        commandManager.register(new CommandHandler() {
+            @Command("give ?")
+            public void give(String sender, int amount) {
+                assertEquals(5, amount);
+                callCount.incrementAndGet();
+            }
+
+            @Command("stop")
+            public void stop(Integer sender) {
+                fail("Shouldn't be called");
+            }
+        });
+        CommandResult result = commandManager.tryExecute("tester", "give 5");
+        assertTrue(result.isSuccess());
+        assertNull(result.getError());
+        assertEquals(1, callCount.get());
+
+        result = commandManager.tryExecute("tester", "missing");
+        assertEquals(CommandResult.Status.NOT_FOUND, result.getStatus());
+        assertEquals("command.unknown", result.getError().getKey());
+
+        result = commandManager.tryExecute("tester", "stop");
+        assertEquals(CommandResult.Status.INCORRECT_CALLER, result.getStatus());
+
+        result = commandManager.tryExecute("tester", "give", "five");
+        assertEquals(CommandResult.Status.INVALID, result.getStatus());
+        assertEquals("parser.integer.invalid", result.getError().getKey());
+        assertEquals("five", result.getError().getArgument(0));
+        assertEquals(1, callCount.get());
+    }
+
+    @Test
+    public void completeForCaller() {
+        CommandManager commandManager = new CommandManager();
+        commandManager.register(new CommandHandler() {
+            @Command("game start")
+            public void start(String caller) {
+            }
+
+            @Command("game stop")
+            public void stop(Integer caller) {
+            }
+
+            @Command("game ? kick")
+            public void kick(Integer caller, String target) {
+            }
+        });
+        Util.same(Arrays.asList("start", "stop"), commandManager.complete("game st"));
+        Util.same(Arrays.asList("start"), commandManager.completeFor("tester", "game st"));
+        Util.same(Arrays.asList("stop"), commandManager.completeFor(5, "game", "st"));
+        Util.same(new ArrayList<String>(), commandManager.completeFor("tester", "game bob k"));
+        Util.same(Arrays.asList("kick"), commandManager.completeFor(5, "game bob k"));
+    }
+
+    @Test
+    public void incorrectCallerCompiled() {
+        CommandManager commandManager = new CommandManager();
+        final AtomicInteger callCount = new AtomicInteger();
+        commandManager.register(new CommandHandler() {
+            @Command("hello ?")
+            public void call(String caller, int number) {
+                callCount.incrementAndGet();
+            }
+
+            @Command("hello ?")
+            public void call(Integer caller, String text) {
+                assertEquals("world", text);
+                callCount.incrementAndGet();
+            }
+        });
+        commandManager.compile();
+        assertTrue(commandManager.tryExecute("hey", "hello 5").isSuccess());
+        assertTrue(commandManager.tryExecute(5, "hello world").isSuccess());
+        assertEquals(CommandResult.Status.INCORRECT_CALLER,
+                commandManager.tryExecute(5.0, "hello world").getStatus());
+        assertEquals(2, callCount.get());
+    }
+
+    @Test
+    public void compiledChains() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final AtomicInteger callCount = new AtomicInteger();
+        commandManager.register(new CommandHandler() {
+            @Command("hello world test")
+            public void test(String caller) {
+                callCount.incrementAndGet();
+            }
+
+            @Command("hello world other ?")
+            public void other(String caller, int number) {
+                assertEquals(3, number);
+                callCount.incrementAndGet();
+            }
+
+            @Command("root ? a b c")
+            public void argument(String caller, String text) {
+                assertEquals("x", text);
+                callCount.incrementAndGet();
+            }
+        });
+        commandManager.compile();
+        commandManager.execute("", "hello world test");
+        commandManager.execute("", "HELLO World other 3");
+        commandManager.execute("", "root x a B c");
+        assertEquals(CommandResult.Status.NOT_FOUND, commandManager.tryExecute("", "hello test").getStatus());
+        assertEquals(CommandResult.Status.NOT_FOUND, commandManager.tryExecute("", "hello world").getStatus());
+        assertEquals(CommandResult.Status.NOT_FOUND, commandManager.tryExecute("", "root x a b").getStatus());
+        assertEquals(3, callCount.get());
+    }
+
+    @Test
+    public void ambiguities() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final AtomicInteger callCount = new AtomicInteger();
+        commandManager.register(new CommandHandler() {
+            @Command("give all")
+            public void all(String caller) {
+                callCount.incrementAndGet();
+            }
+
+            @Command("give ?")
+            public void number(String caller, int amount) {
+                assertEquals(5, amount);
+                callCount.incrementAndGet();
+            }
+
+            @Command("give ? ?")
+            public void named(String caller, String name, int amount) {
+                assertEquals("bob", name);
+                callCount.incrementAndGet();
+            }
+
+            @Command("take ?")
+            public void take(String caller, String name) {
+            }
+
+            @Command("take all")
+            public void takeAll(String caller) {
+            }
+        });
+        List<CommandRegisterException> warnings = commandManager.findAmbiguities();
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0).getMessage().startsWith("'take all'"));
+
+        commandManager.compile();
+        commandManager.execute("", "give all");
+        commandManager.execute("", "give 5");
+        commandManager.execute("", "give bob 5");
+        assertEquals(CommandResult.Status.INVALID, commandManager.tryExecute("", "give bob").getStatus());
+        assertEquals(3, callCount.get());
+    }
+
+    @Test
+    public void compiledLongVarargs() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final int[] calls = new int[1];
+        commandManager.register(new CommandHandler() {
+            @Command("sum ?")
+            public void sum(String caller, int... values) {
+                assertEquals(100, values.length);
+                calls[0]++;
+            }
+        });
+        commandManager.compile();
+        StringBuilder command = new StringBuilder("sum");
+        for (int i = 0; i < 100; i++) {
+            command.append(' ').append(i);
+        }
+        commandManager.execute("", command.toString());
+        assertEquals(1, calls[0]);
+        // Handled by the compiled tree without falling back to
+        // the interpreter
+        assertEquals(0, commandManager.fallbacks);
+    }
+
+    @Test
+    public void compiledDisjointLiteral() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final List<String> calls = new ArrayList<>();
+        commandManager.register(new CommandHandler() {
+            @Command("x foo")
+            public void foo(String caller) {
+                calls.add("foo");
+            }
+
+            @Command("x ? bar")
+            public void bar(String caller, String value) {
+                calls.add(value);
+            }
+        });
+        assertTrue(commandManager.findAmbiguities().isEmpty());
+        commandManager.compile();
+        commandManager.execute("", "x foo");
+        // Matches the literal but only the argument can take
+        // three tokens
+        commandManager.execute("", "x foo bar");
+        assertEquals(Arrays.asList("foo", "foo"), calls);
+        assertEquals(0, commandManager.fallbacks);
+    }
+
+    @Test
+    public void optionalArguments() throws CommandException {
+        for (int i = 0; i < 2; i++) {
+            CommandManager commandManager = new CommandManager();
+            final List<String> calls = new ArrayList<>();
+            commandManager.register(new CommandHandler() {
+                @Command("give ? ? ?")
+                public void give(String caller, String item, @Default("1") int amount, @Optional String note) {
+                    calls.add(item + " " + amount + " " + note);
+                }
+            });
+            if (i == 1) {
+                commandManager.compile();
+            }
+            commandManager.execute("", "give stone");
+            commandManager.execute("", "give stone 5");
+            commandManager.execute("", "give stone 5 hi");
+            commandManager.execute("", "give stone hi");
+            assertEquals(Arrays.asList("stone 1 null", "stone 5 null", "stone 5 hi", "stone 1 hi"), calls);
+            assertEquals(CommandResult.Status.NOT_FOUND, commandManager.tryExecute("", "give").getStatus());
+            assertEquals(CommandResult.Status.NOT_FOUND,
+                    commandManager.tryExecute("", "give stone 5 hi there").getStatus());
+            assertEquals(Arrays.asList("give"), commandManager.complete("gi"));
+        }
+    }
+
+    @Test(expected = CommandRegisterException.class)
+    public void invalidDefault() {
+        CommandManager commandManager = new CommandManager();
+        commandManager.register(new CommandHandler() {
+            @Command("give ?")
+            public void give(String caller, @Default("many") int amount) {
+            }
+        });
+    }
+
+    @Test
+    public void splitArguments() {
+        String[][] commands = {
+                {"tp", "bob", "alice"},
+                {"say", "`hello", "world`", "again"},
+                {"say", "a", "", "b", ""},
+                {"say", "`unclosed", "quote"},
+                {"say", "tab\tted", "`x`y"},
+                {""},
+        };
+        Tokens joined = new Tokens();
+        Tokens split = new Tokens();
+        for (String[] command : commands) {
+            String[] args = Arrays.copyOfRange(command, 1, command.length);
+            StringBuilder builder = new StringBuilder(command[0]);
+            for (String arg : args) {
+                builder.append(' ').append(arg);
+            }
+            joined.tokenize(builder.toString());
+            split.tokenize(command[0], args);
+            assertEquals(joined.count(), split.count());
+            for (int i = 0; i < joined.count(); i++) {
+                assertEquals(joined.get(i), split.get(i));
+                assertEquals(joined.rest(i), split.rest(i));
+            }
+        }
+    }
+
+    @Test
+    public void executeSplit() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final List<String> calls = new ArrayList<>();
+        commandManager.register(new CommandHandler() {
+            @Command("msg ? ?")
+            public void msg(String caller, String to, String message) {
+                calls.add(to + ": " + message);
+            }
+        });
+        commandManager.execute("", "msg", "bob", "`hello", "there`");
+        commandManager.compile();
+        commandManager.execute("", "msg", "bob", "hi");
+        assertEquals(Arrays.asList("bob: hello there", "bob: hi"), calls);
+        assertEquals(Arrays.asList("msg"), commandManager.complete("ms"));
+        assertEquals(Arrays.asList("msg"), commandManager.complete("ms", new String[0]));
+    }
+
+    @Test
+    public void preparedCommand() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final List<String> calls = new ArrayList<>();
+        commandManager.register(new CommandHandler() {
+            @Command("eco give ? ?")
+            public void give(String caller, String to, @Range(min = 0) int amount) {
+                calls.add("int " + to + " " + amount);
+            }
+
+            @Command("eco give ? ?")
+            public void give(String caller, String to, double amount) {
+                calls.add("double " + to + " " + amount);
+            }
+
+            @Command("eco reset ? ?")
+            public void reset(String caller, String to, @Default("0") int amount) {
+                calls.add("reset " + to + " " + amount);
+            }
+        });
+        PreparedCommand give = commandManager.prepare(String.class, "eco give ? ?", String.class, int.class);
+        assertEquals(2, give.getParameterCount());
+        give.setValue(0, "bob");
+        give.setInt(1, 5);
+        give.execute("");
+        give.setArgument(1, "7");
+        give.execute("");
+        give.setArgument(1, "-1");
+        assertEquals(CommandResult.Status.INVALID, give.tryExecute("").getStatus());
+        assertEquals(CommandResult.Status.INCORRECT_CALLER, give.tryExecute(1).getStatus());
+
+        PreparedCommand giveDouble = commandManager.prepare(String.class, "eco give alice ?", double.class);
+        giveDouble.setDouble(0, 1.5);
+        giveDouble.execute("");
+        // Widened like an int passed to the handler directly
+        giveDouble.setInt(0, 3);
+        giveDouble.execute("");
+
+        PreparedCommand reset = commandManager.prepare(String.class, "eco reset ?");
+        reset.setValue(0, "carol");
+        reset.execute("");
+        assertEquals(Arrays.asList("int bob 5", "int bob 7", "double alice 1.5", "double alice 3.0",
+                "reset carol 0"), calls);
+
+        try {
+            commandManager.prepare(String.class, "eco take ?");
+            fail();
+        } catch (CommandException e) {
+            assertEquals("command.unknown", e.getError().getKey());
+        }
+        try {
+            give.setValue(1, "five");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            give.setDouble(1, 2.5);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void executeBatch() {
+        CommandManager commandManager = new CommandManager();
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger total = new AtomicInteger();
+        commandManager.register(new CommandHandler() {
+            @Command("add ?")
+            @ThreadSafe
+            public void add(String caller, int amount) {
+                total.addAndGet(amount);
+            }
+
+            @Command("check ?")
+            public void check(String caller, int expected) {
+                calls.add(caller + " " + (total.get() == expected));
+            }
+
+            @Command("explode")
+            public void explode(String caller) {
+                throw new IllegalStateException("boom");
+            }
+
+            @Command("read")
+            public void read(String caller) throws IOException {
+                throw new IOException("read");
+            }
+        });
+        List<String> commands = Arrays.asList("add 1", "add 2", "check 3", "explode", "add x", "add 4", "check 7", "read");
+        List<CommandResult> results = commandManager.executeBatch("a", commands);
+        assertEquals(CommandResult.Status.SUCCESS, results.get(2).getStatus());
+        assertEquals(CommandResult.Status.EXCEPTION, results.get(3).getStatus());
+        assertTrue(results.get(3).getException() instanceof IllegalStateException);
+        assertEquals(CommandResult.Status.INVALID, results.get(4).getStatus());
+        assertEquals(CommandResult.Status.SUCCESS, results.get(6).getStatus());
+        assertTrue(results.get(7).getException() instanceof IOException);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            total.set(0);
+            results = commandManager.executeBatch(Arrays.asList("b", "b", "b", "b", "b", "b", "b", "b"), commands, pool);
+            assertEquals(CommandResult.Status.EXCEPTION, results.get(3).getStatus());
+            assertEquals(CommandResult.Status.INVALID, results.get(4).getStatus());
+            assertTrue(results.get(7).getException() instanceof IOException);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(Arrays.asList("a true", "a true", "b true", "b true"), calls);
+    }
+
+    @Test
+    public void executeAsync() throws Exception {
+        CommandManager commandManager = new CommandManager();
+        final Thread caller = Thread.currentThread();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        commandManager.register(new CommandHandler() {
+            // Queued on the executor running the handler so it
+            // can only start once the handler has returned
+            @Command("lookup ?")
+            public Future<String> lookup(String sender, final String name) {
+                assertTrue(Thread.currentThread() != caller);
+                return executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return "found " + name;
+                    }
+                });
+            }
+
+            @Command("missing")
+            public Future<String> missing(String sender) {
+                return executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        throw new IllegalArgumentException("missing");
+                    }
+                });
+            }
+
+            @Command("crash")
+            public void crash(String sender) {
+                throw new AssertionError("crash");
+            }
+
+            @Command("count ?")
+            public int count(String sender, int amount) {
+                return amount * 2;
+            }
+
+            @Command("fail")
+            public void fail(String sender) {
+                throw new IllegalStateException("boom");
+            }
+
+            @Command("read")
+            public void read(String sender) throws IOException {
+                throw new IOException("read");
+            }
+        });
+        try {
+            assertEquals("found bob", commandManager.executeAsync("", "lookup bob", executor).get(5, TimeUnit.SECONDS));
+            assertEquals(6, commandManager.executeAsync("", "count 3", executor).get());
+
+            Future<Object> invalid = commandManager.executeAsync("", "count x", executor);
+            assertTrue(invalid.isDone());
+            try {
+                invalid.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertEquals("parser.integer.invalid", ((CommandException) e.getCause()).getError().getKey());
+            }
+            try {
+                commandManager.executeAsync("", "fail", executor).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertEquals("command.exception", ((CommandException) e.getCause()).getError().getKey());
+                assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+            }
+            try {
+                commandManager.executeAsync("", "missing", executor).get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertEquals("command.exception", ((CommandException) e.getCause()).getError().getKey());
+                assertTrue(e.getCause().getCause() instanceof IllegalArgumentException);
+            }
+            try {
+                commandManager.executeAsync("", "crash", executor).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getCause() instanceof AssertionError);
+            }
+            try {
+                commandManager.executeAsync("", "read", executor).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertEquals("command.exception", ((CommandException) e.getCause()).getError().getKey());
+                assertTrue(e.getCause().getCause() instanceof IOException);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -24,6 +24,8 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import static org.junit.Assert.*;
 
@@ -67,6 +69,31 @@ public class TestLimiter {
         commandManager.execute("hello", "do 25");
     }
 
+    @Test
+    public void limitPrimitiveRanges() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        commandManager.register(new CommandHandler() {
+            @Command("move ? ?")
+            public void test(String sender, @DoubleRange(min = -1.5, max = 1.5) double x,
+                             @LongRange(min = 0) long amount) {
+            }
+        });
+        commandManager.execute("hello", "move 1.25 5");
+        try {
+            commandManager.execute("hello", "move 1.75 5");
+            fail("Shouldn't be called");
+        } catch (CommandException e) {
+            assertEquals("validator.range.max", e.getError().getKey());
+            assertEquals("'1.75' must be lesser or equal to '1.5'", e.getMessage());
+        }
+        try {
+            commandManager.execute("hello", "move 0 -1");
+            fail("Shouldn't be called");
+        } catch (CommandException e) {
+            assertEquals("validator.range.min", e.getError().getKey());
+        }
+    }
+
     @Test(expected = CommandException.class)
     public void limitCaller() throws CommandException {
         CommandManager commandManager = new CommandManager();
@@ -119,6 +146,149 @@ public class TestLimiter {
         commandManager.execute("bob", "testing cake");
     }
 
+    @Test
+    public void limitCallerStatus() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        commandManager.register(new CommandHandler() {
+            @Command("world ? time set ?")
+            public void test(@MaxLength(2) String sender, String name, int newTime) {
+                fail("Shouldn't be called");
+            }
+
+            @Command("admin ban ?")
+            @NotGuest
+            public void ban(String sender, int time) {
+                fail("Shouldn't be called");
+            }
+        });
+        CommandResult result = commandManager.tryExecute("hello", "world testing time set 55");
+        assertEquals(CommandResult.Status.INCORRECT_CALLER, result.getStatus());
+        assertEquals(CommandResult.Status.INCORRECT_CALLER,
+                commandManager.tryExecute("guest", "admin ban 5").getStatus());
+
+        PreparedCommand ban = commandManager.prepare(String.class, "admin ban 5");
+        assertEquals(CommandResult.Status.INCORRECT_CALLER, ban.tryExecute("guest").getStatus());
+    }
+
+    @Test
+    public void limitCallerHoisted() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        commandManager.register(new CommandHandler() {
+            @Command("admin ban ?")
+            @NotGuest
+            public void ban(String sender, int time) {
+                assertEquals("bob", sender);
+            }
+
+            @Command("admin kick ?")
+            @NotGuest
+            public void kick(String sender, String target) {
+                fail("Shouldn't be called");
+            }
+
+            @Command("admin help")
+            public void help(String sender) {
+            }
+        });
+        NotGuest.NotGuestHandler.calls = 0;
+        commandManager.execute("bob", "admin ban 5");
+        assertEquals(1, NotGuest.NotGuestHandler.calls);
+        commandManager.execute("guest", "admin help");
+        assertEquals(1, NotGuest.NotGuestHandler.calls);
+        try {
+            // Checked before the argument is parsed
+            commandManager.execute("guest", "admin ban never");
+            fail("Shouldn't be called");
+        } catch (CommandException e) {
+            assertEquals("not.guest", e.getError().getKey());
+        }
+        assertEquals(2, NotGuest.NotGuestHandler.calls);
+        Util.same(new ArrayList<String>(), commandManager.completeFor("guest", "admin k"));
+        Util.same(Arrays.asList("help"), commandManager.completeFor("guest", "admin h"));
+        Util.same(Arrays.asList("kick"), commandManager.completeFor("bob", "admin k"));
+
+        NotGuest.NotGuestHandler.calls = 0;
+        commandManager.compile();
+        commandManager.execute("bob", "admin ban 5");
+        assertEquals(1, NotGuest.NotGuestHandler.calls);
+    }
+
+    @Test
+    public void equivalentArgumentsShared() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final int[] calls = new int[1];
+        commandManager.register(new CommandHandler() {
+            @Command("check ? first")
+            public void first(String sender, @Checked String value) {
+                fail("Shouldn't be called");
+            }
+
+            @Command("check ? second")
+            public void second(String sender, @Checked String value) {
+                assertEquals("hello", value);
+                calls[0]++;
+            }
+
+            @Command("check ? third")
+            public void third(String sender, @MaxLength(10) String value) {
+                fail("Shouldn't be called");
+            }
+        });
+        Checked.CheckedHandler.calls = 0;
+        commandManager.execute("bob", "check hello second");
+        assertEquals(1, calls[0]);
+        // Both @Checked arguments share a node and so are
+        // only validated once
+        assertEquals(1, Checked.CheckedHandler.calls);
+    }
+
+    @TypeHandler(
+            value = Checked.CheckedHandler.class,
+            clazz = String.class
+    )
+    @Target(ElementType.PARAMETER)
+    @Retention(RetentionPolicy.RUNTIME)
+    private @interface Checked {
+
+        class CheckedHandler implements ArgumentValidator<String> {
+
+            static int calls;
+
+            CheckedHandler(Checked checked) {
+            }
+
+            @Override
+            public void validate(String argString, String argument) throws ParserException {
+                calls++;
+            }
+        }
+    }
+
+    @TypeHandler(
+            value = NotGuest.NotGuestHandler.class,
+            clazz = String.class
+    )
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    private @interface NotGuest {
+
+        class NotGuestHandler implements ArgumentValidator<String> {
+
+            static int calls;
+
+            NotGuestHandler(NotGuest notGuest) {
+            }
+
+            @Override
+            public void validate(String argString, String argument) throws ParserException {
+                calls++;
+                if (argument.equals("guest")) {
+                    throw new ParserException(3, "not.guest");
+                }
+            }
+        }
+    }
+
     @TypeHandler(
             value = NoK.NoKHandler.class,
             clazz = String.class
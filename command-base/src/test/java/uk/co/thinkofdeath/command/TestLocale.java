@@ -64,4 +64,31 @@ public class TestLocale {
         cm1.execute("tester", "mycommand give hello 55");
         cm2.execute("tester", "testing 55 give hello");
     }
+
+    @Test
+    public void testLazyMessage() {
+        final int[] lookups = new int[1];
+        CommandManager commandManager = new CommandManager(new CommandLocaleHandler() {
+            @Override
+            public String getCommand(String command) {
+                return command;
+            }
+
+            @Override
+            public String getLocalisedString(String key) {
+                lookups[0]++;
+                return key;
+            }
+        });
+        try {
+            commandManager.execute("tester", "missing");
+        } catch (CommandException e) {
+            assertEquals(0, lookups[0]);
+            assertEquals("command.unknown", e.getMessage());
+            assertEquals("command.unknown", e.getMessage());
+            assertEquals(1, lookups[0]);
+            return;
+        }
+        throw new AssertionError("Expected a CommandException");
+    }
 }
@@ -18,8 +18,13 @@ package uk.co.thinkofdeath.command;
 
 import org.junit.Test;
 import uk.co.thinkofdeath.parsing.parsers.ArgumentParser;
+import uk.co.thinkofdeath.parsing.parsers.DoubleParser;
 import uk.co.thinkofdeath.parsing.parsers.EnumParser;
+import uk.co.thinkofdeath.parsing.parsers.IntegerParser;
+import uk.co.thinkofdeath.parsing.parsers.ParseHint;
+import uk.co.thinkofdeath.parsing.parsers.UUIDParser;
 import uk.co.thinkofdeath.parsing.ParserException;
+import uk.co.thinkofdeath.parsing.validators.Range;
 
 import java.util.*;
 
@@ -317,4 +322,343 @@ public class TestParsers {
         });
         commandManager.execute("tester", "numbers `1, 2, 3, 4, 10`");
     }
+
+    static class Counted {
+    }
+
+    // Counts how often it is asked to parse, rejecting "bad" and
+    // arguments starting with a digit
+    static class CountingParser implements ArgumentParser<Counted> {
+        int calls;
+
+        @Override
+        public Counted parse(String argument) throws ParserException {
+            calls++;
+            if (argument.equals("bad") || !argument.isEmpty() && Character.isDigit(argument.charAt(0))) {
+                throw new ParserException(2, "parser.counted.invalid", argument);
+            }
+            return new Counted();
+        }
+
+        @Override
+        public Set<String> complete(String argument) {
+            return new HashSet<>();
+        }
+    }
+
+    @Test
+    public void parserCalledOncePerToken() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        CountingParser parser = new CountingParser();
+        commandManager.addParser(Counted.class, parser);
+        commandManager.register(new CommandHandler() {
+            @Command("test ? first")
+            public void first(String sender, Counted counted) {
+                fail();
+            }
+
+            @Command("test ? second")
+            public void second(String sender, Counted counted) {
+            }
+
+            @Command("test ? third")
+            public void third(String sender, Counted counted) {
+                fail();
+            }
+        });
+        commandManager.execute("tester", "test good second");
+        assertEquals(1, parser.calls);
+
+        parser.calls = 0;
+        try {
+            commandManager.execute("tester", "test bad second");
+            fail();
+        } catch (CommandException e) {
+            assertEquals("parser.counted.invalid", e.getError().getKey());
+        }
+        assertEquals(1, parser.calls);
+    }
+
+    @Test
+    public void parserSkippedOnDeadRoutes() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        CountingParser parser = new CountingParser();
+        commandManager.addParser(Counted.class, parser);
+        commandManager.register(new CommandHandler() {
+            @Command("test ? ? ?")
+            public void three(String sender, Counted a, Counted b, Counted c) {
+                fail();
+            }
+
+            @Command("test ? other")
+            public void other(String sender, Counted a) {
+                fail();
+            }
+
+            @Command("test ?")
+            public void one(String sender, String a) {
+            }
+        });
+        commandManager.execute("tester", "test a");
+        try {
+            commandManager.execute("tester", "test a b");
+            fail();
+        } catch (CommandException e) {
+            assertEquals("command.unknown", e.getError().getKey());
+        }
+        assertEquals(0, parser.calls);
+    }
+
+    @Test
+    public void completeSkipsShortRoutes() {
+        CommandManager commandManager = new CommandManager();
+        CountingParser parser = new CountingParser();
+        commandManager.addParser(Counted.class, parser);
+        commandManager.register(new CommandHandler() {
+            @Command("test ?")
+            public void one(String sender, Counted a) {
+                fail();
+            }
+
+            @Command("test ? ? item")
+            public void three(String sender, String a, String b) {
+                fail();
+            }
+        });
+        Util.same(Arrays.asList("item"), commandManager.complete("test a b it"));
+        assertEquals(0, parser.calls);
+    }
+
+    @Test
+    public void primitiveParsers() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final int[] calls = new int[1];
+        commandManager.register(new CommandHandler() {
+            @Command("test ? ? ? ? ?")
+            public void test(String sender, int a, long b, float c, double d, boolean e) {
+                assertEquals(-5, a);
+                assertEquals(10000000000L, b);
+                assertEquals(1.5f, c, 0);
+                assertEquals(-0.25, d, 0);
+                assertTrue(e);
+                calls[0]++;
+            }
+        });
+        commandManager.execute("tester", "test -5 10000000000 1.5 -0.25 TRUE");
+        commandManager.compile();
+        commandManager.execute("tester", "test -5 10000000000 1.5 -0.25 true");
+        assertEquals(2, calls[0]);
+        try {
+            commandManager.execute("tester", "test -5 10000000000 1.5 -0.25 maybe");
+            fail("Shouldn't be called");
+        } catch (CommandException e) {
+            assertEquals("parser.boolean.invalid", e.getError().getKey());
+        }
+    }
+
+    @Test
+    public void boxedParserForPrimitive() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        // A parser without primitive support still works for
+        // primitive parameters
+        commandManager.addParser(int.class, new ArgumentParser<Integer>() {
+            @Override
+            public Integer parse(String argument) throws ParserException {
+                return argument.length();
+            }
+
+            @Override
+            public Set<String> complete(String argument) {
+                return new HashSet<>();
+            }
+        });
+        final int[] calls = new int[1];
+        commandManager.register(new CommandHandler() {
+            @Command("test ?")
+            public void test(String sender, int length) {
+                assertEquals(5, length);
+                calls[0]++;
+            }
+        });
+        commandManager.execute("tester", "test hello");
+        commandManager.compile();
+        commandManager.execute("tester", "test world");
+        assertEquals(2, calls[0]);
+    }
+
+    @Test
+    public void parserSkippedForIncorrectCaller() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        CountingParser parser = new CountingParser();
+        commandManager.addParser(Counted.class, parser);
+        commandManager.register(new CommandHandler() {
+            @Command("test ?")
+            public void test(Integer sender, Counted a) {
+                fail();
+            }
+        });
+        try {
+            commandManager.execute("tester", "test a");
+            fail();
+        } catch (CommandException e) {
+            assertEquals("command.incorrect.caller", e.getError().getKey());
+        }
+        assertEquals(0, parser.calls);
+    }
+
+    // Only accepts arguments starting with '@' and counts how
+    // often it is asked to parse
+    static class HintedParser implements ArgumentParser<Counted>, ParseHint {
+        int calls;
+
+        @Override
+        public Counted parse(String argument) throws ParserException {
+            calls++;
+            if (!argument.startsWith("@")) {
+                throw new ParserException(2, "parser.counted.invalid", argument);
+            }
+            return new Counted();
+        }
+
+        @Override
+        public boolean canParse(String argument) {
+            return argument.startsWith("@");
+        }
+
+        @Override
+        public int getCost() {
+            return EXPENSIVE;
+        }
+
+        @Override
+        public Set<String> complete(String argument) {
+            return new HashSet<>();
+        }
+    }
+
+    @Test
+    public void parseHints() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        HintedParser parser = new HintedParser();
+        commandManager.addParser(Counted.class, parser);
+        final int[] calls = new int[2];
+        commandManager.register(new CommandHandler() {
+            @Command("test ? ?")
+            public void fallback(String sender, String a, String b) {
+                calls[0]++;
+            }
+
+            @Command("test ? ?")
+            public void hinted(String sender, Counted a, int b) {
+                calls[1]++;
+            }
+        });
+        commandManager.compile();
+        // Rejected by the hint
+        commandManager.execute("tester", "test a 5");
+        // The int after it can't parse so the expensive parser
+        // isn't worth calling
+        commandManager.execute("tester", "test @a b");
+        assertEquals(0, parser.calls);
+        commandManager.execute("tester", "test @a 5");
+        assertEquals(1, parser.calls);
+        assertArrayEquals(new int[]{2, 1}, calls);
+
+        assertTrue(new IntegerParser().canParse("-15"));
+        assertFalse(new IntegerParser().canParse("-"));
+        assertFalse(new IntegerParser().canParse("testing"));
+        assertTrue(new DoubleParser().canParse(".5"));
+        assertFalse(new DoubleParser().canParse("NaN"));
+        assertTrue(new UUIDParser().canParse("f81d4fae7dec11d0a76500a0c91e6bf6"));
+        assertFalse(new UUIDParser().canParse("f81d4fae7dec11d0"));
+    }
+
+    @Test
+    public void adaptiveOrdering() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        CountingParser parser = new CountingParser();
+        commandManager.addParser(Counted.class, parser);
+        final int[] handled = new int[2];
+        commandManager.register(new CommandHandler() {
+            @Command("give ?")
+            public void number(String sender, int amount) {
+                handled[0]++;
+            }
+
+            // Tried first as it was registered last
+            @Command("give ?")
+            public void counted(String sender, Counted counted) {
+                handled[1]++;
+            }
+        });
+        commandManager.setAdaptiveOrdering(true);
+        commandManager.compile();
+        for (int i = 0; i < 1000; i++) {
+            commandManager.execute("tester", "give 5");
+        }
+        assertEquals(1000, handled[0]);
+        // The int overload is tried first once it has been
+        // reordered
+        assertTrue(parser.calls < 1000);
+        int before = parser.calls;
+        commandManager.execute("tester", "give 5");
+        assertEquals(before, parser.calls);
+        commandManager.execute("tester", "give x");
+        assertEquals(1, handled[1]);
+    }
+
+    @Test
+    public void restOfCommand() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final List<Object> messages = new ArrayList<>();
+        commandManager.register(new CommandHandler() {
+            @Command("broadcast ?")
+            public void broadcast(String sender, @Rest String message) {
+                messages.add(message);
+            }
+
+            @Command("mail ? ?")
+            public void mail(String sender, String to, @Rest CharSequence message) {
+                assertEquals("bob", to);
+                messages.add(message.toString());
+            }
+        });
+        commandManager.execute("tester", "broadcast hello  `big` world");
+        commandManager.compile();
+        commandManager.execute("tester", "broadcast `hello world`");
+        commandManager.execute("tester", "mail bob see you\tsoon");
+        assertEquals(Arrays.<Object>asList("hello  `big` world", "`hello world`", "see you\tsoon"), messages);
+        assertEquals(CommandResult.Status.NOT_FOUND, commandManager.tryExecute("tester", "mail bob").getStatus());
+    }
+
+    @Test
+    public void primitiveVarargs() throws CommandException {
+        CommandManager commandManager = new CommandManager();
+        final List<String> calls = new ArrayList<>();
+        commandManager.register(new CommandHandler() {
+            @Command("slots ?")
+            public void slots(String sender, @Range(min = 0, max = 40) int... slots) {
+                calls.add(Arrays.toString(slots));
+            }
+
+            @Command("scale ?")
+            public void scale(String sender, double... factors) {
+                calls.add(Arrays.toString(factors));
+            }
+
+            @Command("toggle ?")
+            public void toggle(String sender, boolean... values) {
+                calls.add(Arrays.toString(values));
+            }
+        });
+        commandManager.execute("tester", "slots 1 2 40");
+        commandManager.execute("tester", "scale 0.5 2");
+        assertEquals(CommandResult.Status.INVALID, commandManager.tryExecute("tester", "slots 1 41").getStatus());
+        commandManager.compile();
+        commandManager.execute("tester", "slots 3");
+        commandManager.execute("tester", "toggle true false");
+        assertEquals(CommandResult.Status.INVALID, commandManager.tryExecute("tester", "slots 1 41").getStatus());
+        assertEquals(CommandResult.Status.INVALID, commandManager.tryExecute("tester", "scale 1 x").getStatus());
+        assertEquals(Arrays.asList("[1, 2, 40]", "[0.5, 2.0]", "[3]", "[true, false]"), calls);
+    }
 }
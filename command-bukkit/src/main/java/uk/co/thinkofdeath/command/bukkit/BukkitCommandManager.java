@@ -30,9 +30,9 @@ import uk.co.thinkofdeath.parsing.bukkit.parsing.EnchantmentParser;
 import uk.co.thinkofdeath.parsing.bukkit.parsing.PlayerParser;
 import uk.co.thinkofdeath.parsing.bukkit.parsing.PotionParser;
 import uk.co.thinkofdeath.parsing.bukkit.parsing.WorldParser;
-import uk.co.thinkofdeath.command.CommandException;
 import uk.co.thinkofdeath.command.CommandLocaleHandler;
 import uk.co.thinkofdeath.command.CommandManager;
+import uk.co.thinkofdeath.command.CommandResult;
 import uk.co.thinkofdeath.parsing.parsers.EnumParser;
 
 import java.util.List;
@@ -50,6 +50,8 @@ import java.util.List;
  */
 public class BukkitCommandManager extends CommandManager implements TabExecutor {
 
+    private final CommandLocaleHandler localeHandler;
+
     /**
      * Creates a CommandManager initialised with parsers
      * from the CommandManager as well as:
@@ -92,6 +94,7 @@ public class BukkitCommandManager extends CommandManager implements TabExecutor
      */
     public BukkitCommandManager(Plugin plugin, CommandLocaleHandler localeHandler) {
         super(localeHandler);
+        this.localeHandler = localeHandler;
         addParser(World.class, new WorldParser(plugin));
         addParser(Player.class, new PlayerParser(plugin));
         addParser(Enchantment.class, new EnchantmentParser(plugin));
@@ -101,16 +104,15 @@ public class BukkitCommandManager extends CommandManager implements TabExecutor
 
     @Override
     public boolean onCommand(CommandSender commandSender, Command command, String label, String[] args) {
-        try {
-            execute(commandSender, command.getName(), args);
-        } catch (CommandException e) {
-            commandSender.sendMessage(ChatColor.RED + "Error: " + e.getMessage());
+        CommandResult result = tryExecute(commandSender, command.getName(), args);
+        if (!result.isSuccess()) {
+            commandSender.sendMessage(ChatColor.RED + "Error: " + result.getError().localise(localeHandler));
         }
         return true;
     }
 
     @Override
     public List<String> onTabComplete(CommandSender commandSender, Command command, String label, String[] args) {
-        return complete(command.getName(), args);
+        return completeFor(commandSender, command.getName(), args);
     }
 }
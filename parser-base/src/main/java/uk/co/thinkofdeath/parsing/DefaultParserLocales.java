@@ -23,13 +23,18 @@ public class DefaultParserLocales {
     public static void insert(Map<String, String> strings) {
         strings.put("parser.integer.invalid", "'%s' is not an integer");
         strings.put("parser.double.invalid", "'%s' is not a real number");
+        strings.put("parser.long.invalid", "'%s' is not an integer");
+        strings.put("parser.float.invalid", "'%s' is not a real number");
+        strings.put("parser.boolean.invalid", "'%s' is not true or false");
         strings.put("parser.enum.invalid", "'%s' is not a valid value");
         strings.put("parser.uuid.invalid", "'%s' is not a valid UUID");
         strings.put("command.unknown", "Unknown command");
         strings.put("command.incorrect.caller", "You cannot call this command");
+        strings.put("command.too.complex", "Command is too complex");
+        strings.put("command.exception", "An error occurred while executing the command");
         strings.put("validator.maxlength", "'%s' is longer than the max %s");
-        strings.put("validator.range.min", "'%d' must be greater or equal to '%d'");
-        strings.put("validator.range.max", "'%d' must be lesser or equal to '%d'");
+        strings.put("validator.range.min", "'%s' must be greater or equal to '%s'");
+        strings.put("validator.range.max", "'%s' must be lesser or equal to '%s'");
         strings.put("validator.regex", "'%s' is not %s");
         strings.put("regex.valid", "valid input");
     }
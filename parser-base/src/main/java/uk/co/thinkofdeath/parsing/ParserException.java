@@ -17,7 +17,12 @@
 package uk.co.thinkofdeath.parsing;
 
 /**
- * Thrown if a parser is unable to parse the argument
+ * Thrown if a parser is unable to parse the argument.
+ *
+ * <p>
+ *
+ * Parsers failing is an expected part of matching commands
+ * so this doesn't record a stack trace
  */
 public class ParserException extends Exception {
 
@@ -26,6 +31,7 @@ public class ParserException extends Exception {
     private final Object[] args;
 
     public ParserException(int priority, String key, Object... args) {
+        super(null, null, false, false);
         this.priority = priority;
         this.key = key;
         this.args = args;
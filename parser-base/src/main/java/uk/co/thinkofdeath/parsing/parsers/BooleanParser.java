@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.parsing.parsers;
+
+import uk.co.thinkofdeath.parsing.ParserException;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Allows for 'true' or 'false' ignoring case
+ */
+public class BooleanParser implements BooleanArgumentParser, ParseHint {
+    @Override
+    public Boolean parse(String argument) throws ParserException {
+        return parseBoolean(argument);
+    }
+
+    @Override
+    public boolean parseBoolean(String argument) throws ParserException {
+        if (argument.equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (argument.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new ParserException(2, "parser.boolean.invalid", argument);
+    }
+
+    @Override
+    public boolean canParse(String argument) {
+        return (argument.length() == 4 || argument.length() == 5)
+                && (argument.charAt(0) == 't' || argument.charAt(0) == 'T'
+                || argument.charAt(0) == 'f' || argument.charAt(0) == 'F');
+    }
+
+    @Override
+    public int getCost() {
+        return CHEAP;
+    }
+
+    @Override
+    public Set<String> complete(String argument) {
+        argument = argument.toLowerCase();
+        HashSet<String> ret = new HashSet<>();
+        if ("true".startsWith(argument)) {
+            ret.add("true");
+        }
+        if ("false".startsWith(argument)) {
+            ret.add("false");
+        }
+        return ret;
+    }
+}
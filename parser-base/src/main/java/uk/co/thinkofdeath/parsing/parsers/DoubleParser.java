@@ -24,11 +24,16 @@ import java.util.Set;
 /**
  * Allows for any valid double, except NaN and infinities
  */
-public class DoubleParser implements ArgumentParser<Double> {
+public class DoubleParser implements DoubleArgumentParser, ParseHint {
     @Override
     public Double parse(String argument) throws ParserException {
+        return parseDouble(argument);
+    }
+
+    @Override
+    public double parseDouble(String argument) throws ParserException {
         try {
-            double v = Double.valueOf(argument);
+            double v = Double.parseDouble(argument);
 
             // most command won't expect to handle special values
             if (Double.isNaN(v) || Double.isInfinite(v)) {
@@ -41,6 +46,31 @@ public class DoubleParser implements ArgumentParser<Double> {
         }
     }
 
+    @Override
+    public boolean canParse(String argument) {
+        return isDecimal(argument);
+    }
+
+    @Override
+    public int getCost() {
+        return CHEAP;
+    }
+
+    // Whether the argument could be a finite number accepted by
+    // Double.parseDouble and Float.parseFloat, which skip leading
+    // whitespace and take an optional sign before the digits
+    static boolean isDecimal(String argument) {
+        int length = argument.length();
+        int i = 0;
+        while (i < length && argument.charAt(i) <= ' ') {
+            i++;
+        }
+        if (i < length && (argument.charAt(i) == '-' || argument.charAt(i) == '+')) {
+            i++;
+        }
+        return i < length && (Character.isDigit(argument.charAt(i)) || argument.charAt(i) == '.');
+    }
+
     @Override
     public Set<String> complete(String argument) {
         return new HashSet<>();
@@ -29,12 +29,15 @@ import java.util.Set;
  * @param <T>
  *         The type of enum
  */
-public class EnumParser<T extends Enum<T>> implements ArgumentParser<T> {
+public class EnumParser<T extends Enum<T>> implements ArgumentParser<T>, ParseHint {
 
     private final Class<T> e;
     private final boolean ignoreUnderscores;
 
     private final Map<String, T> underscoreless;
+    // The shortest and longest names of the constants
+    private final int minLength;
+    private final int maxLength;
 
     /**
      * Creates an enum parser for the enum
@@ -55,6 +58,14 @@ public class EnumParser<T extends Enum<T>> implements ArgumentParser<T> {
         } else {
             underscoreless = null;
         }
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (T v : e.getEnumConstants()) {
+            min = Math.min(min, v.name().length());
+            max = Math.max(max, v.name().length());
+        }
+        minLength = min;
+        maxLength = max;
     }
 
     /**
@@ -84,6 +95,19 @@ public class EnumParser<T extends Enum<T>> implements ArgumentParser<T> {
         throw new ParserException(2, "parser.enum.invalid", argument);
     }
 
+    @Override
+    public boolean canParse(String argument) {
+        // Underscores can be left out or added freely when
+        // ignored so only the names' lengths can be checked
+        return ignoreUnderscores
+                || (argument.length() >= minLength && argument.length() <= maxLength);
+    }
+
+    @Override
+    public int getCost() {
+        return CHEAP;
+    }
+
     @Override
     public Set<String> complete(String argument) {
         argument = argument.toLowerCase();
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.parsing.parsers;
+
+import uk.co.thinkofdeath.parsing.ParserException;
+
+/**
+ * An argument parser that produces an int without boxing
+ * it. Command managers call {@link #parseInt(String)} when
+ * the value is passed to an int parameter, {@link #parse(String)}
+ * must return the same value boxed
+ */
+public interface IntArgumentParser extends ArgumentParser<Integer> {
+
+    /**
+     * Attempts to convert the argument into an int
+     *
+     * @param argument
+     *         The argument to parse
+     * @return The result of parsing
+     * @throws uk.co.thinkofdeath.parsing.ParserException
+     *         If the parser is unable to
+     *         parse the argument
+     */
+    int parseInt(String argument) throws ParserException;
+}
@@ -24,16 +24,51 @@ import java.util.Set;
 /**
  * Allows for any valid integer
  */
-public class IntegerParser implements ArgumentParser<Integer> {
+public class IntegerParser implements IntArgumentParser, ParseHint {
     @Override
     public Integer parse(String argument) throws ParserException {
+        return parseInt(argument);
+    }
+
+    @Override
+    public int parseInt(String argument) throws ParserException {
         try {
-            return Integer.valueOf(argument);
+            return Integer.parseInt(argument);
         } catch (NumberFormatException e) {
             throw new ParserException(2, "parser.integer.invalid", argument);
         }
     }
 
+    @Override
+    public boolean canParse(String argument) {
+        return isInteger(argument);
+    }
+
+    @Override
+    public int getCost() {
+        return CHEAP;
+    }
+
+    // Whether the argument is an optional sign followed by
+    // digits, which is all Integer.parseInt and Long.parseLong
+    // accept
+    static boolean isInteger(String argument) {
+        int length = argument.length();
+        int i = 0;
+        if (length > 1 && (argument.charAt(0) == '-' || argument.charAt(0) == '+')) {
+            i++;
+        }
+        if (i == length) {
+            return false;
+        }
+        for (; i < length; i++) {
+            if (!Character.isDigit(argument.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public Set<String> complete(String argument) {
         return new HashSet<>();
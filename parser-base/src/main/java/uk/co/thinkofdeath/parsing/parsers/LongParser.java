@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.parsing.parsers;
+
+import uk.co.thinkofdeath.parsing.ParserException;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Allows for any valid long
+ */
+public class LongParser implements LongArgumentParser, ParseHint {
+    @Override
+    public Long parse(String argument) throws ParserException {
+        return parseLong(argument);
+    }
+
+    @Override
+    public long parseLong(String argument) throws ParserException {
+        try {
+            return Long.parseLong(argument);
+        } catch (NumberFormatException e) {
+            throw new ParserException(2, "parser.long.invalid", argument);
+        }
+    }
+
+    @Override
+    public boolean canParse(String argument) {
+        return IntegerParser.isInteger(argument);
+    }
+
+    @Override
+    public int getCost() {
+        return CHEAP;
+    }
+
+    @Override
+    public Set<String> complete(String argument) {
+        return new HashSet<>();
+    }
+}
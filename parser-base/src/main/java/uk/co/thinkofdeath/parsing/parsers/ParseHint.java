@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.parsing.parsers;
+
+/**
+ * Optional hints an {@link ArgumentParser} can provide to let
+ * a command manager skip it without calling
+ * {@link ArgumentParser#parse(String)}.
+ *
+ * <p>
+ *
+ * Parsers that don't implement this are assumed to accept
+ * any argument and to have a cost of {@link #NORMAL}
+ */
+public interface ParseHint {
+
+    /**
+     * The cost of a parser that only looks at the characters
+     * of the argument
+     */
+    int CHEAP = 1;
+    /**
+     * The cost of a parser that does more work than looking at
+     * the characters, e.g. matching a regex
+     */
+    int NORMAL = 10;
+    /**
+     * The cost of a parser that looks the argument up, e.g.
+     * finding an online player
+     */
+    int EXPENSIVE = 100;
+
+    /**
+     * Returns whether the argument could be parsed by this
+     * parser. This must be cheap and may only return false
+     * if {@link ArgumentParser#parse(String)} would certainly
+     * fail
+     *
+     * @param argument
+     *         The argument to check
+     * @return False if parsing the argument would fail
+     */
+    boolean canParse(String argument);
+
+    /**
+     * Returns the relative cost of calling
+     * {@link ArgumentParser#parse(String)}
+     *
+     * @return The cost, e.g. {@link #CHEAP}
+     */
+    int getCost();
+}
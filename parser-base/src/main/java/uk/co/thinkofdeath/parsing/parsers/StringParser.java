@@ -24,12 +24,22 @@ import java.util.Set;
 /**
  * Accepts everything
  */
-public class StringParser implements ArgumentParser<String> {
+public class StringParser implements ArgumentParser<String>, ParseHint {
     @Override
     public String parse(String argument) throws ParserException {
         return argument;
     }
 
+    @Override
+    public boolean canParse(String argument) {
+        return true;
+    }
+
+    @Override
+    public int getCost() {
+        return CHEAP;
+    }
+
     @Override
     public Set<String> complete(String argument) {
         return new HashSet<>();
@@ -27,7 +27,7 @@ import java.util.regex.Pattern;
 /**
  * Allows for any valid UUID, both standard style and Mojang style
  */
-public class UUIDParser implements ArgumentParser<UUID> {
+public class UUIDParser implements ArgumentParser<UUID>, ParseHint {
 
     private final Pattern altPattern = Pattern.compile("([0-9a-fA-F]{8})([0-9a-fA-F]{4})([0-9a-fA-F]{4})([0-9a-fA-F]{4})([0-9a-fA-F]{12})");
 
@@ -45,6 +45,27 @@ public class UUIDParser implements ArgumentParser<UUID> {
         }
     }
 
+    @Override
+    public boolean canParse(String argument) {
+        // Either form is made up of hex digits, the Mojang style
+        // without any dashes is exactly 32 long
+        boolean dashes = false;
+        for (int i = 0; i < argument.length(); i++) {
+            char c = argument.charAt(i);
+            if (c == '-') {
+                dashes = true;
+            } else if (Character.digit(c, 16) == -1) {
+                return false;
+            }
+        }
+        return dashes || argument.length() == 32;
+    }
+
+    @Override
+    public int getCost() {
+        return NORMAL;
+    }
+
     @Override
     public Set<String> complete(String argument) {
         return new HashSet<>();
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.parsing.validators;
+
+import uk.co.thinkofdeath.parsing.ParserException;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@TypeHandler(
+        value = DoubleRangeHandler.class,
+        clazz = double.class
+)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+/**
+ * Requires the double to be between min and max
+ */
+public @interface DoubleRange {
+    double min() default -Double.MAX_VALUE;
+
+    double max() default Double.MAX_VALUE;
+}
+
+class DoubleRangeHandler implements DoubleArgumentValidator {
+
+    private final double min;
+    private final double max;
+
+    DoubleRangeHandler(DoubleRange range) {
+        min = range.min();
+        max = range.max();
+    }
+
+    @Override
+    public void validate(String argStr, Double argument) throws ParserException {
+        validateDouble(argStr, argument);
+    }
+
+    @Override
+    public void validateDouble(String argStr, double argument) throws ParserException {
+        if (argument < min) {
+            throw new ParserException(3, "validator.range.min", argument, min);
+        }
+        if (argument > max) {
+            throw new ParserException(3, "validator.range.max", argument, max);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.parsing.validators;
+
+import uk.co.thinkofdeath.parsing.ParserException;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@TypeHandler(
+        value = FloatRangeHandler.class,
+        clazz = float.class
+)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+/**
+ * Requires the float to be between min and max
+ */
+public @interface FloatRange {
+    float min() default -Float.MAX_VALUE;
+
+    float max() default Float.MAX_VALUE;
+}
+
+class FloatRangeHandler implements FloatArgumentValidator {
+
+    private final float min;
+    private final float max;
+
+    FloatRangeHandler(FloatRange range) {
+        min = range.min();
+        max = range.max();
+    }
+
+    @Override
+    public void validate(String argStr, Float argument) throws ParserException {
+        validateFloat(argStr, argument);
+    }
+
+    @Override
+    public void validateFloat(String argStr, float argument) throws ParserException {
+        if (argument < min) {
+            throw new ParserException(3, "validator.range.min", argument, min);
+        }
+        if (argument > max) {
+            throw new ParserException(3, "validator.range.max", argument, max);
+        }
+    }
+}
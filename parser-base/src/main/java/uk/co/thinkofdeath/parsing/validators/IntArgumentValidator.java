@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.parsing.validators;
+
+import uk.co.thinkofdeath.parsing.ParserException;
+
+/**
+ * An argument validator for an int that can check the
+ * value without boxing it. {@link #validate(String, Object)}
+ * must behave the same for the boxed value
+ */
+public interface IntArgumentValidator extends ArgumentValidator<Integer> {
+
+    /**
+     * Checks if the argument matches the specification declared
+     * in the matching annotation.
+     *
+     * @param argString
+     *         The string that the parser used to
+     *         obtain this argument. May be null
+     * @param argument
+     *         The argument to be validated
+     */
+    void validateInt(String argString, int argument) throws ParserException;
+}
@@ -38,7 +38,7 @@ public @interface Range {
     int max() default Integer.MAX_VALUE;
 }
 
-class RangeHandler implements ArgumentValidator<Integer> {
+class RangeHandler implements IntArgumentValidator {
 
     private final int min;
     private final int max;
@@ -50,12 +50,16 @@ class RangeHandler implements ArgumentValidator<Integer> {
 
     @Override
     public void validate(String argStr, Integer argument) throws ParserException {
+        validateInt(argStr, argument);
+    }
+
+    @Override
+    public void validateInt(String argStr, int argument) throws ParserException {
         if (argument < min) {
             throw new ParserException(3, "validator.range.min", argument, min);
         }
         if (argument > max) {
-            throw new ParserException(3, "validator.range.max'", argument, max);
+            throw new ParserException(3, "validator.range.max", argument, max);
         }
     }
 }
-
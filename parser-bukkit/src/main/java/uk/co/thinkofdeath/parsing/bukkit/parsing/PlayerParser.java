@@ -19,6 +19,7 @@ package uk.co.thinkofdeath.parsing.bukkit.parsing;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 import uk.co.thinkofdeath.parsing.parsers.ArgumentParser;
+import uk.co.thinkofdeath.parsing.parsers.ParseHint;
 import uk.co.thinkofdeath.parsing.ParserException;
 
 import java.util.HashSet;
@@ -29,7 +30,7 @@ import java.util.Set;
  * this parsing doesn't require an exact match to work.
  * This may be changed by using {@link uk.co.thinkofdeath.parsing.bukkit.validators.Strict}
  */
-public class PlayerParser implements ArgumentParser<Player> {
+public class PlayerParser implements ArgumentParser<Player>, ParseHint {
     private final Plugin plugin;
 
     public PlayerParser(Plugin plugin) {
@@ -45,6 +46,18 @@ public class PlayerParser implements ArgumentParser<Player> {
         return player;
     }
 
+    @Override
+    public boolean canParse(String argument) {
+        // getPlayer matches on a prefix of the name so any
+        // argument, even an empty one, may find a player
+        return true;
+    }
+
+    @Override
+    public int getCost() {
+        return EXPENSIVE;
+    }
+
     @Override
     public Set<String> complete(String argument) {
         HashSet<String> completions = new HashSet<>();
@@ -20,6 +20,7 @@ import org.bukkit.World;
 import org.bukkit.plugin.Plugin;
 import uk.co.thinkofdeath.parsing.ParserException;
 import uk.co.thinkofdeath.parsing.parsers.ArgumentParser;
+import uk.co.thinkofdeath.parsing.parsers.ParseHint;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -27,7 +28,7 @@ import java.util.Set;
 /**
  * Parses world name's into World objects
  */
-public class WorldParser implements ArgumentParser<World> {
+public class WorldParser implements ArgumentParser<World>, ParseHint {
     private final Plugin plugin;
 
     public WorldParser(Plugin plugin) {
@@ -43,6 +44,16 @@ public class WorldParser implements ArgumentParser<World> {
         return world;
     }
 
+    @Override
+    public boolean canParse(String argument) {
+        return !argument.isEmpty();
+    }
+
+    @Override
+    public int getCost() {
+        return EXPENSIVE;
+    }
+
     @Override
     public Set<String> complete(String argument) {
         HashSet<String> completions = new HashSet<>();